@@ -49,4 +49,41 @@ public interface Constants {
      * Values ​​are separated by semicolons
      */
     String HTTP_SERVICE_SELECTOR = "pax.wicket.httpservice.selector";
+
+    /**
+     * Framework property for the default number of milliseconds services injected from the service registry are kept
+     * acquired after their last use, see {@link PaxWicketBean#serviceRetention()}.
+     */
+    String SERVICE_RETENTION = "pax.wicket.injection.serviceretention";
+
+    /**
+     * Framework property selecting the format pages are serialized in, one of <code>java</code> (default),
+     * <code>compact</code> or <code>compact-deflate</code>. Pages are readable in every format regardless of this
+     * property, the compact formats require the same class versions for writing and reading.
+     */
+    String SERIALIZATION_FORMAT = "pax.wicket.serialization.format";
+
+    /**
+     * Framework property for the minimum number of milliseconds between two runs of the serialization checker
+     * explaining why objects of the same class could not be serialized, defaults to <code>60000</code>. Use
+     * <code>0</code> to check every failure.
+     */
+    String SERIALIZATION_CHECK_INTERVAL = "pax.wicket.serialization.checkinterval";
+
+    /**
+     * Service property name for the startup mode of an application, <code>eager</code> (default) initializes the
+     * application as soon as its servlet is registered, {@link #APPLICATION_STARTUP_LAZY} on the first request.
+     */
+    String APPLICATION_STARTUP = "pax.wicket.applicationstartup";
+
+    /**
+     * Value of {@link #APPLICATION_STARTUP} deferring the initialization of an application to its first request.
+     */
+    String APPLICATION_STARTUP_LAZY = "lazy";
+
+    /**
+     * Service property name for the page classes, as <code>String[]</code> or comma separated <code>String</code>,
+     * which are loaded and prepared for instantiation in the background once the application is initialized.
+     */
+    String WARMUP_PAGES = "pax.wicket.warmuppages";
 }
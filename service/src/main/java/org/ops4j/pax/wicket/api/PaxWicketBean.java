@@ -66,4 +66,20 @@ public @interface PaxWicketBean {
      */
     boolean allowNull() default false;
 
+    /**
+     * Optional attribute specifying if the injected proxy could be shared. If set to <code>true</code> all components
+     * of an application (and bundle) will get the same proxy instance for the same bean type, name, overwrites and
+     * injection source instead of a new proxy per field and component. Since the shared proxy is used concurrently by
+     * all requests this should only be enabled for stateless beans.
+     */
+    boolean shared() default false;
+
+    /**
+     * Optional attribute for beans injected from the service registry specifying how many milliseconds the service is
+     * kept acquired after its last use. With <code>0</code> the service is released after every call; it is always
+     * released as soon as it is unregistered. If not specified the framework property
+     * {@link Constants#SERVICE_RETENTION} is used, which defaults to <code>0</code>.
+     */
+    long serviceRetention() default -1;
+
 }
@@ -48,6 +48,8 @@ public final class Activator implements BundleActivator {
 
     private BundleTrackerAggregator<WebApplicationFactory<?>> bundleTrackerAggregator;
 
+    private PaxWicketBundleListener paxWicketBundleListener;
+
     private BundleTracker<ExtendedBundle> bundleExtensionTracker;
 
     private BundleImportExtender bundleImportExtender;
@@ -58,38 +60,51 @@ public final class Activator implements BundleActivator {
 
     private ServiceRegistration<ProxyTargetLocatorFactory> proxyFactoryService;
 
+    private OSGiServiceRegistryProxyTargetLocatorFactory internalLocatorFactory;
+
     @SuppressWarnings("unchecked")
     public final void start(BundleContext context) throws Exception {
         LOGGER.debug("Initializing [{}] bundle.", context.getBundle().getSymbolicName());
         bundleContext = context;
+        long phaseStart = System.currentTimeMillis();
 
         bundleImportExtender = new BundleImportExtender(context);
         context.addBundleListener(bundleImportExtender);
         weavingHockRegistration = context.registerService(WeavingHook.class, bundleImportExtender, null);
+        phaseStart = logPhase("weaving hook", phaseStart);
 
         httpTracker = new HttpTracker(context);
         httpTracker.open();
+        phaseStart = logPhase("http service tracker", phaseStart);
 
-        OSGiServiceRegistryProxyTargetLocatorFactory internalLocatorFactory =
-            new OSGiServiceRegistryProxyTargetLocatorFactory();
+        internalLocatorFactory = new OSGiServiceRegistryProxyTargetLocatorFactory(context);
         proxyFactoryService = context.registerService(ProxyTargetLocatorFactory.class, internalLocatorFactory, null);
 
         proxyFactoryTracker = new ServiceTracker<ProxyTargetLocatorFactory, ProxyTargetLocatorFactory>(bundleContext,
                 ProxyTargetLocatorFactory.class, null);
         proxyFactoryTracker.open();
+        phaseStart = logPhase("proxy target locator factories", phaseStart);
         bundleDelegatingExtensionTracker = new BundleDelegatingExtensionTracker(context, proxyFactoryTracker);
         applicationFactoryTracker = new PaxWicketAppFactoryTracker(context, httpTracker);
 
-        PaxWicketBundleListener paxWicketBundleListener =
-            new PaxWicketBundleListener(context, bundleDelegatingExtensionTracker);
+        paxWicketBundleListener = new PaxWicketBundleListener(context, bundleDelegatingExtensionTracker);
 
         bundleExtensionTracker = new BundleTracker<ExtendedBundle>(context, Bundle.ACTIVE, paxWicketBundleListener);
         bundleExtensionTracker.open();
+        context.addBundleListener(paxWicketBundleListener);
+        phaseStart = logPhase("bundle tracker", phaseStart);
 
         bundleTrackerAggregator =
             new BundleTrackerAggregator<WebApplicationFactory<?>>(context, WebApplicationFactory.class.getName(), null,
                 bundleDelegatingExtensionTracker, applicationFactoryTracker);
         bundleTrackerAggregator.open(true);
+        logPhase("application factory tracker", phaseStart);
+    }
+
+    private static long logPhase(String phase, long phaseStart) {
+        long now = System.currentTimeMillis();
+        LOGGER.debug("Startup phase [{}] took {} ms", phase, now - phaseStart);
+        return now;
     }
 
     public static BundleContext getBundleContext() {
@@ -108,8 +123,11 @@ public final class Activator implements BundleActivator {
     public final void stop(BundleContext context) throws Exception {
         weavingHockRegistration.unregister();
         proxyFactoryService.unregister();
+        internalLocatorFactory.dispose();
         context.removeBundleListener(bundleImportExtender);
+        context.removeBundleListener(paxWicketBundleListener);
         bundleExtensionTracker.close();
+        paxWicketBundleListener.dispose();
         bundleTrackerAggregator.close();
         httpTracker.close();
         bundleContext = null;
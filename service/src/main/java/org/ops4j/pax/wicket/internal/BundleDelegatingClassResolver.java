@@ -24,7 +24,12 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.wicket.application.IClassResolver;
 import org.ops4j.pax.wicket.api.Constants;
@@ -44,7 +49,43 @@ public class BundleDelegatingClassResolver implements IClassResolver, InternalBu
 
     private final String applicationName;
     private final BundleContext paxWicketBundleContext;
+    private static final int MAX_UNRESOLVABLE_CLASSES = 1024;
+
     private final Map<String, Bundle> bundles = new HashMap<String, Bundle>();
+
+    /**
+     * The bundles providing each package, guarded by {@link #bundles}
+     */
+    private final Map<String, List<Bundle>> packageBundles = new HashMap<String, List<Bundle>>();
+
+    /**
+     * The bundle each class was resolved from; entries of a bundle are dropped when it is removed or replaced
+     */
+    private final ConcurrentMap<String, Bundle> classOwners = new ConcurrentHashMap<String, Bundle>();
+
+    /**
+     * The most recent class names no bundle could resolve, guarded by itself and cleared whenever a bundle is added
+     */
+    private final Map<String, Boolean> unresolvableClasses = new LinkedHashMap<String, Boolean>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_UNRESOLVABLE_CLASSES;
+        }
+    };
+
+    /**
+     * Number of bundles removed or replaced so far, written while holding {@link #bundles}
+     */
+    private volatile int removedBundleCount;
+
+    /**
+     * Changed whenever bundles are added or removed, guarded by {@link #bundles}. Lookups done without the lock only
+     * remember their result if it did not change in the meantime.
+     */
+    private int generation;
+
     private ServiceRegistration<IClassResolver> classResolverRegistration;
 
     public BundleDelegatingClassResolver(BundleContext paxWicketBundleContext, String applicationName) {
@@ -78,8 +119,28 @@ public class BundleDelegatingClassResolver implements IClassResolver, InternalBu
         if (classResolverRegistration == null) {
             throw new IllegalStateException("The service is stoped and no more bundles could be added");
         }
+        Set<String> packageNames = bundle.getPackageNames();
         synchronized (bundles) {
-            bundles.put(bundle.getBundle().getSymbolicName(), bundle.getBundle());
+            Bundle replaced = bundles.put(bundle.getBundle().getSymbolicName(), bundle.getBundle());
+            if (replaced != null && replaced != bundle.getBundle()) {
+                forgetClassOwner(replaced);
+                forgetPackages(replaced);
+                removedBundleCount++;
+            }
+            for (String packageName : packageNames) {
+                List<Bundle> providers = packageBundles.get(packageName);
+                if (providers == null) {
+                    providers = new ArrayList<Bundle>(1);
+                    packageBundles.put(packageName, providers);
+                }
+                if (!providers.contains(bundle.getBundle())) {
+                    providers.add(bundle.getBundle());
+                }
+            }
+            synchronized (unresolvableClasses) {
+                unresolvableClasses.clear();
+            }
+            generation++;
         }
     }
 
@@ -88,46 +149,141 @@ public class BundleDelegatingClassResolver implements IClassResolver, InternalBu
             throw new IllegalStateException("The service is stoped and no more bundles could be removed");
         }
         synchronized (bundles) {
-            bundles.remove(bundle.getBundle().getSymbolicName());
+            Bundle removed = bundles.remove(bundle.getBundle().getSymbolicName());
+            if (removed != null) {
+                forgetClassOwner(removed);
+                forgetPackages(removed);
+                removedBundleCount++;
+            }
+            generation++;
+        }
+    }
+
+    /**
+     * @return the number of bundles removed (or replaced) so far, classes loaded from them should be forgotten
+     */
+    public int getRemovedBundleCount() {
+        return removedBundleCount;
+    }
+
+    /**
+     * Has to be called while holding the lock of {@link #bundles}.
+     */
+    private void forgetPackages(Bundle bundle) {
+        Iterator<List<Bundle>> providers = packageBundles.values().iterator();
+        while (providers.hasNext()) {
+            List<Bundle> packageProviders = providers.next();
+            packageProviders.remove(bundle);
+            if (packageProviders.isEmpty()) {
+                providers.remove();
+            }
+        }
+    }
+
+    /**
+     * Has to be called while holding the lock of {@link #bundles}.
+     */
+    private void forgetClassOwner(Bundle bundle) {
+        Iterator<Bundle> owners = classOwners.values().iterator();
+        while (owners.hasNext()) {
+            if (owners.next() == bundle) {
+                owners.remove();
+            }
         }
     }
 
     public Class<?> resolveClass(String classname) throws ClassNotFoundException {
         LOGGER.trace("Trying to resolve class {} from BundleDelegatingClassResolver", classname);
+        Bundle owner = classOwners.get(classname);
+        if (owner != null) {
+            try {
+                return owner.loadClass(classname);
+            } catch (ClassNotFoundException e) {
+                LOGGER.trace("Bundle {} could no longer load class {}", owner.getSymbolicName(), classname);
+            } catch (IllegalStateException e) {
+                LOGGER.trace("Bundle {} could no longer load class {} because bundle had been uninstalled",
+                    owner.getSymbolicName(), classname);
+            }
+            classOwners.remove(classname, owner);
+        }
+        synchronized (unresolvableClasses) {
+            if (unresolvableClasses.containsKey(classname)) {
+                throw new ClassNotFoundException("Class [" + classname + "] can't be resolved.");
+            }
+        }
+        List<Bundle> candidates;
+        int lookupGeneration;
+        synchronized (bundles) {
+            // First try the bundles providing the package, then all others since the class might be visible to them
+            // through their imports
+            List<Bundle> providers = packageBundles.get(ExtendedBundle.getPackageName(classname));
+            candidates = new ArrayList<Bundle>(bundles.size());
+            if (providers != null) {
+                candidates.addAll(providers);
+            }
+            for (Bundle bundle : bundles.values()) {
+                if (providers == null || !providers.contains(bundle)) {
+                    candidates.add(bundle);
+                }
+            }
+            lookupGeneration = generation;
+        }
+        // Probe the bundles without holding the lock, so concurrent lookups do not wait for each other
+        for (Bundle bundle : candidates) {
+            Class<?> loadedClass = loadClass(bundle, classname);
+            if (loadedClass != null) {
+                synchronized (bundles) {
+                    if (generation == lookupGeneration) {
+                        classOwners.put(classname, bundle);
+                    }
+                }
+                return loadedClass;
+            }
+        }
         synchronized (bundles) {
-            Collection<Bundle> values = bundles.values();
-            for (Bundle bundle : values) {
-                try {
-                    LOGGER.trace("Trying to load class {} from bundle {}", classname, bundle.getSymbolicName());
-                    Class<?> loadedClass = bundle.loadClass(classname);
-                    LOGGER.debug("Loaded class {} from bundle {}", classname, bundle.getSymbolicName());
-                    return loadedClass;
-                } catch (ClassNotFoundException e) {
-                    LOGGER.trace("Could not load class {} from bundle {} because bundle does not contain the class",
-                        classname, bundle.getSymbolicName());
-                } catch (IllegalStateException e) {
-                    LOGGER.trace("Could not load class {} from bundle {} because bundle had been uninstalled",
-                        classname,
-                        bundle.getSymbolicName());
+            // a bundle added in the meantime might provide the class
+            if (generation == lookupGeneration) {
+                synchronized (unresolvableClasses) {
+                    unresolvableClasses.put(classname, Boolean.TRUE);
                 }
             }
         }
         throw new ClassNotFoundException("Class [" + classname + "] can't be resolved.");
     }
 
+    /**
+     * @return the class loaded from the bundle or <code>null</code> if it can't be loaded from there
+     */
+    private Class<?> loadClass(Bundle bundle, String classname) {
+        try {
+            LOGGER.trace("Trying to load class {} from bundle {}", classname, bundle.getSymbolicName());
+            Class<?> loadedClass = bundle.loadClass(classname);
+            LOGGER.debug("Loaded class {} from bundle {}", classname, bundle.getSymbolicName());
+            return loadedClass;
+        } catch (ClassNotFoundException e) {
+            LOGGER.trace("Could not load class {} from bundle {} because bundle does not contain the class",
+                classname, bundle.getSymbolicName());
+        } catch (IllegalStateException e) {
+            LOGGER.trace("Could not load class {} from bundle {} because bundle had been uninstalled",
+                classname,
+                bundle.getSymbolicName());
+        }
+        return null;
+    }
+
     public Iterator<URL> getResources(String name) {
         ArrayList<URL> collectedResources = new ArrayList<URL>();
         try {
             synchronized (bundles) {
-                Collection<Bundle> values = bundles.values();
-                for (Bundle bundle : values) {
-                    final Enumeration<URL> enumeration = bundle.getResources(name);
-                    if (enumeration == null) {
-                        continue;
-                    }
-                    while (enumeration.hasMoreElements()) {
-                        collectedResources.add(enumeration.nextElement());
-                    }
+                // Resources of a package provided by some bundles are looked up in them first, all bundles are
+                // searched if they do not have it (e.g. resource only bundles)
+                String packageName = getResourcePackageName(name);
+                Collection<Bundle> values = packageName.length() > 0 ? packageBundles.get(packageName) : null;
+                if (values != null) {
+                    collectResources(values, null, name, collectedResources);
+                }
+                if (collectedResources.isEmpty()) {
+                    collectResources(bundles.values(), values, name, collectedResources);
                 }
             }
         } catch (IOException e) {
@@ -137,6 +293,28 @@ public class BundleDelegatingClassResolver implements IClassResolver, InternalBu
         return collectedResources.iterator();
     }
 
+    private static void collectResources(Collection<Bundle> bundles, Collection<Bundle> searched, String name,
+            List<URL> collectedResources) throws IOException {
+        for (Bundle bundle : bundles) {
+            if (searched != null && searched.contains(bundle)) {
+                continue;
+            }
+            Enumeration<URL> enumeration = bundle.getResources(name);
+            if (enumeration == null) {
+                continue;
+            }
+            while (enumeration.hasMoreElements()) {
+                collectedResources.add(enumeration.nextElement());
+            }
+        }
+    }
+
+    private static String getResourcePackageName(String name) {
+        int start = name.startsWith("/") ? 1 : 0;
+        int lastSlash = name.lastIndexOf('/');
+        return lastSlash < start ? "" : name.substring(start, lastSlash).replace('/', '.');
+    }
+
     /**
      * This method is uses only for some internal wicket stuff if the IClassResolver is NOT replaced and in some IOC
      * stuff also not used by pax wicket. Therefore this method should never ever be called. If it is though we want to
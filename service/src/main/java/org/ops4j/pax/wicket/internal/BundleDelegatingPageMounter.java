@@ -77,8 +77,8 @@ public class BundleDelegatingPageMounter implements InternalBundleDelegationProv
         if (bundle.isRelevantForMountPointAnnotations()) {
             LOGGER.trace("Scanning bundle {} for PaxWicketMountPoint annotations", symbolicName);
             ArrayList<DefaultPageMounter> pageMounter = new ArrayList<DefaultPageMounter>();
-            Collection<Class<?>> allClasses = bundle.getAllClasses();
-            for (Class<?> clazz : allClasses) {
+            Collection<Class<?>> candidateClasses = bundle.getMountPointCandidateClasses();
+            for (Class<?> clazz : candidateClasses) {
                 PaxWicketMountPoint mountPoint = clazz.getAnnotation(PaxWicketMountPoint.class);
                 if (mountPoint != null) {
                     if (!Page.class.isAssignableFrom(clazz)) {
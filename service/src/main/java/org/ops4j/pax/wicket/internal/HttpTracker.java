@@ -16,6 +16,11 @@
 package org.ops4j.pax.wicket.internal;
 
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.Servlet;
 import javax.servlet.ServletException;
@@ -32,7 +37,8 @@ import org.slf4j.LoggerFactory;
 
 /**
  * This class tracks the HTTPService and provide methods to add/remove a servlet under a given mount-point. Servlets are
- * added/removed whenever a http service is registered
+ * added/removed whenever a http service is registered. Registering a servlet initializes its Wicket application, so
+ * registrations run on a thread pool and several applications start concurrently.
  *
  * @author Christoph Läubrich
  *
@@ -41,49 +47,80 @@ final class HttpTracker extends ServiceTracker<HttpService, HttpService> {
 
     private static final Logger LOG = LoggerFactory.getLogger(HttpTracker.class);
 
-    private Map<HttpService, ServiceReference> httpServices;
+    // guarded by servlets
+    private Map<HttpService, ServiceReference<HttpService>> httpServices;
     private final Map<ServiceReference<WebApplicationFactory<?>>, ServletDescriptor> servlets;
 
+    private final ExecutorService registrationExecutor;
+
 
     HttpTracker(BundleContext context) {
         super(context, HttpService.class.getName(), null);
-        httpServices = new HashMap<HttpService, ServiceReference>();
+        httpServices = new HashMap<HttpService, ServiceReference<HttpService>>();
         servlets = new HashMap<ServiceReference<WebApplicationFactory<?>>, ServletDescriptor>();
+        registrationExecutor =
+            Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "PAX Wicket application startup");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
     }
 
     @Override
     public final HttpService addingService(ServiceReference<HttpService> serviceReference) {
         HttpService httpService = super.addingService(serviceReference);
-        if (!httpServices.containsKey(httpService)) {
-            httpServices.put(httpService, serviceReference);
-        }
-
+        List<ServletDescriptor> descriptors;
         synchronized (servlets) {
-            for (ServletDescriptor servletDescriptor : servlets.values()) {
-                registerServletDescriptor(serviceReference, httpService, servletDescriptor);
+            if (!httpServices.containsKey(httpService)) {
+                httpServices.put(httpService, serviceReference);
             }
+            descriptors = new ArrayList<ServletDescriptor>(servlets.values());
+        }
+        for (ServletDescriptor servletDescriptor : descriptors) {
+            registerServletDescriptorAsync(serviceReference, httpService, servletDescriptor);
         }
         return httpService;
     }
 
     @Override
     public final void removedService(ServiceReference<HttpService> serviceReference, HttpService httpService) {
-        // TODO This does not work well with multiple http services!
+        List<ServletDescriptor> descriptors;
         synchronized (servlets) {
-            for(ServletDescriptor servletDescriptor : servlets.values()){
-                servletDescriptor.unregister(httpService);
-            }
+            httpServices.remove(httpService);
+            descriptors = new ArrayList<ServletDescriptor>(servlets.values());
+        }
+        for (ServletDescriptor servletDescriptor : descriptors) {
+            servletDescriptor.unregister(httpService);
         }
         super.removedService(serviceReference, httpService);
     }
 
+    /**
+     * Waits for running registrations to finish before the tracker is closed; registrations of servlets removed in the
+     * meantime are skipped.
+     */
+    @Override
+    public void close() {
+        registrationExecutor.shutdown();
+        try {
+            if (!registrationExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                LOG.warn("Servlet registrations did not finish within 10 seconds");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        super.close();
+    }
+
     /**
      * Unregister a servlet descriptor handling runtime exceptions
      *
      */
     private void unregisterServletDescriptor(ServletDescriptor servletDescriptor) {
         try {
-            servletDescriptor.unregister();
+            servletDescriptor.dispose();
         } catch (RuntimeException e) {
             LOG.error(
                 "Unregistration of ServletDescriptor under mountpoint {} fails with unexpected RuntimeException!",
@@ -119,33 +156,60 @@ final class HttpTracker extends ServiceTracker<HttpService, HttpService> {
         }
     }
 
-    private void registerServletDescriptor(ServletDescriptor servletDescriptor) {
-        for (Map.Entry<HttpService, ServiceReference> entry : httpServices.entrySet()) {
-            registerServletDescriptor(entry.getValue(), entry.getKey(), servletDescriptor);
+    private void registerServletDescriptorAsync(final ServiceReference<HttpService> serviceReference,
+            final HttpService httpService, final ServletDescriptor servletDescriptor) {
+        try {
+            registrationExecutor.execute(new Runnable() {
+                public void run() {
+                    if (!isTracked(httpService)) {
+                        LOG.debug("Skipping registration of servlet on mountpoint {}, the http service is gone",
+                            servletDescriptor.getAlias());
+                        return;
+                    }
+                    long start = System.currentTimeMillis();
+                    registerServletDescriptor(serviceReference, httpService, servletDescriptor);
+                    if (!isTracked(httpService)) {
+                        // the service was removed while registering, removedService may have missed this servlet
+                        servletDescriptor.unregister(httpService);
+                        return;
+                    }
+                    LOG.debug("Registration of servlet on mountpoint {} took {} ms", servletDescriptor.getAlias(),
+                        System.currentTimeMillis() - start);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Skipping registration of servlet on mountpoint {}, the tracker is closed",
+                servletDescriptor.getAlias());
         }
     }
 
+    private boolean isTracked(HttpService httpService) {
+        synchronized (servlets) {
+            return httpServices.containsKey(httpService);
+        }
+    }
 
     public final void addServlet(String mountPoint, Servlet servlet, Map<?, ?> contextParams, ServiceReference<WebApplicationFactory<?>> appFactoryReference) {
         mountPoint = GenericContext.normalizeMountPoint(mountPoint);
         ServletDescriptor descriptor =
             new ServletDescriptor(servlet, mountPoint, appFactoryReference.getBundle(), contextParams);
+        Map<HttpService, ServiceReference<HttpService>> services;
         synchronized (servlets) {
             servlets.put(appFactoryReference, descriptor);
-            registerServletDescriptor(descriptor);
+            services = new HashMap<HttpService, ServiceReference<HttpService>>(httpServices);
+        }
+        for (Map.Entry<HttpService, ServiceReference<HttpService>> entry : services.entrySet()) {
+            registerServletDescriptorAsync(entry.getValue(), entry.getKey(), descriptor);
         }
     }
 
     public final void removeServlet(ServiceReference<WebApplicationFactory<?>> appFactoryReference) {
+        ServletDescriptor remove;
         synchronized (servlets) {
-            if(servlets.containsKey(appFactoryReference)){
-                unregisterServletDescriptor(servlets.get(appFactoryReference));
-                ServletDescriptor remove = servlets.remove(appFactoryReference);
-                if (remove != null) {
-                    unregisterServletDescriptor(remove);
-                }
-            }
+            remove = servlets.remove(appFactoryReference);
+        }
+        if (remove != null) {
+            unregisterServletDescriptor(remove);
         }
-
     }
 }
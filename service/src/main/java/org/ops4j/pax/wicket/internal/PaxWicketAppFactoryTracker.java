@@ -79,6 +79,7 @@ public class PaxWicketAppFactoryTracker implements ServiceTrackerAggregatorReady
         }
         LOGGER.debug("Service Added [{}], Factory hash [{}]", reference, identityHashCode(internalFactory));
         Servlet servlet = ServletProxy.newServletProxy(internalFactory);
+        // the servlet, and with it the application, is initialized asynchronously by the http tracker
         addServlet(internalFactory.getMountPoint(), servlet, internalFactory.getContextParams(), reference);
         synchronized (factories) {
             factories.put(reference, internalFactory);
@@ -16,27 +16,37 @@
 package org.ops4j.pax.wicket.internal;
 
 import java.io.File;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.WeakHashMap;
 
+import net.sf.cglib.proxy.Callback;
 import net.sf.cglib.proxy.Enhancer;
 import net.sf.cglib.proxy.MethodInterceptor;
 import net.sf.cglib.proxy.MethodProxy;
 
 import org.apache.wicket.IPageFactory;
+import org.apache.wicket.ThreadContext;
+import org.apache.wicket.application.IClassResolver;
 import org.apache.wicket.protocol.http.IWebApplicationFactory;
 import org.apache.wicket.protocol.http.WebApplication;
 import org.apache.wicket.protocol.http.WicketFilter;
+import org.apache.wicket.request.component.IRequestablePage;
 import org.ops4j.pax.wicket.api.Constants;
 import org.ops4j.pax.wicket.api.WebApplicationFactory;
 import org.ops4j.pax.wicket.internal.filter.FilterDelegator;
 import org.ops4j.pax.wicket.internal.injection.ComponentInstantiationListenerFacade;
 import org.ops4j.pax.wicket.internal.injection.DelegatingComponentInstanciationListener;
+import org.ops4j.pax.wicket.util.serialization.PaxWicketSerializationDiagnostics;
 import org.ops4j.pax.wicket.util.serialization.PaxWicketSerializer;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * An internal wrapper for the {@link WebApplicationFactory} exported by clients who want to register an application.
@@ -45,6 +55,14 @@ import org.osgi.framework.ServiceReference;
  */
 public class PaxWicketApplicationFactory implements IWebApplicationFactory {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(PaxWicketApplicationFactory.class);
+
+    /**
+     * The enhanced subclasses of the application classes, weakly referenced as they reference the application class
+     */
+    private static final Map<Class<?>, WeakReference<Class<?>>> ENHANCED_CLASSES =
+        new WeakHashMap<Class<?>, WeakReference<Class<?>>>();
+
     private final BundleContext bundleContext;
     private final WebApplicationFactory<? extends WebApplication> webApplicationFactory;
     private final String applicationName;
@@ -52,6 +70,10 @@ public class PaxWicketApplicationFactory implements IWebApplicationFactory {
     private final Map<String, String> contextParams;
     private final File tmpDir;
     private final FilterDelegator filterDelegator;
+    private final boolean lazyStartup;
+    private final String[] warmUpPages;
+
+    private volatile WebApplication application;
 
     @SuppressWarnings("unchecked")
     public static PaxWicketApplicationFactory
@@ -74,8 +96,24 @@ public class PaxWicketApplicationFactory implements IWebApplicationFactory {
 
         FilterDelegator filterDelegator =
                 new FilterDelegator(reference.getBundle().getBundleContext(), applicationName);
+        boolean lazyStartup =
+            Constants.APPLICATION_STARTUP_LAZY.equals(reference.getProperty(Constants.APPLICATION_STARTUP));
+        String[] warmUpPages = getWarmUpPages(reference.getProperty(Constants.WARMUP_PAGES));
         return new PaxWicketApplicationFactory(bundleContext, webApplicationFactory, applicationName, mountPoint,
-                contextParams, tmpDir, filterDelegator);
+                contextParams, tmpDir, filterDelegator, lazyStartup, warmUpPages);
+    }
+
+    private static String[] getWarmUpPages(Object property) {
+        if (property instanceof String[]) {
+            return (String[]) property;
+        } else if (property instanceof String && ((String) property).trim().length() > 0) {
+            String[] pages = ((String) property).split(",");
+            for (int i = 0; i < pages.length; i++) {
+                pages[i] = pages[i].trim();
+            }
+            return pages;
+        }
+        return new String[0];
     }
 
     private static File retrieveTmpFile(BundleContext bundleContext) {
@@ -90,7 +128,7 @@ public class PaxWicketApplicationFactory implements IWebApplicationFactory {
             WebApplicationFactory<? extends WebApplication> webApplicationFactory,
                                         String applicationName, String mountPoint, Map<String, String> contextParams,
             File tmpDir,
-                                        FilterDelegator filterDelegator) {
+                                        FilterDelegator filterDelegator, boolean lazyStartup, String[] warmUpPages) {
         this.bundleContext = bundleContext;
         this.webApplicationFactory = webApplicationFactory;
         this.applicationName = applicationName;
@@ -98,6 +136,8 @@ public class PaxWicketApplicationFactory implements IWebApplicationFactory {
         this.contextParams = contextParams;
         this.tmpDir = tmpDir;
         this.filterDelegator = filterDelegator;
+        this.lazyStartup = lazyStartup;
+        this.warmUpPages = warmUpPages;
     }
 
     public boolean isValidFactory() {
@@ -110,21 +150,106 @@ public class PaxWicketApplicationFactory implements IWebApplicationFactory {
 
     private <T extends WebApplication> T createFromFactory(WebApplicationFactory<T> factory) {
         Class<T> applicationClass = factory.getWebApplicationClass();
-        Enhancer e = new Enhancer();
-        e.setSuperclass(applicationClass);
-        e.setCallback(new WebApplicationWrapper());
-        @SuppressWarnings("unchecked")
-        T instance = (T) e.create();
+        Class<?> enhancedClass = getEnhancedClass(applicationClass);
+        Enhancer.registerCallbacks(enhancedClass, new Callback[]{ new WebApplicationWrapper() });
+        T instance;
+        try {
+            instance = applicationClass.cast(enhancedClass.getConstructor().newInstance());
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException("Unable to instantiate application " + applicationClass.getName(),
+                e.getCause());
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Unable to instantiate application " + applicationClass.getName(), e);
+        } catch (InstantiationException e) {
+            throw new IllegalStateException("Unable to instantiate application " + applicationClass.getName(), e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Unable to instantiate application " + applicationClass.getName(), e);
+        } finally {
+            Enhancer.registerCallbacks(enhancedClass, null);
+        }
         factory.onInstantiation(instance);
+        application = instance;
         return instance;
     }
 
+    private static Class<?> getEnhancedClass(Class<?> applicationClass) {
+        synchronized (ENHANCED_CLASSES) {
+            WeakReference<Class<?>> reference = ENHANCED_CLASSES.get(applicationClass);
+            Class<?> enhancedClass = reference != null ? reference.get() : null;
+            if (enhancedClass == null) {
+                Enhancer e = new Enhancer();
+                e.setSuperclass(applicationClass);
+                e.setCallbackType(WebApplicationWrapper.class);
+                enhancedClass = e.createClass();
+                ENHANCED_CLASSES.put(applicationClass, new WeakReference<Class<?>>(enhancedClass));
+            }
+            return enhancedClass;
+        }
+    }
+
+    /**
+     * @return {@code true} if the application is initialized on its first request instead of when its servlet is
+     *         registered
+     */
+    public boolean isLazyStartup() {
+        return lazyStartup;
+    }
+
+    /**
+     * Loads the configured warm-up pages in the background and prepares the page factory of the initialized
+     * application for them. Pages are not instantiated, as that requires a request and a session.
+     */
+    public void warmUp() {
+        final WebApplication current = application;
+        if (warmUpPages.length == 0 || current == null) {
+            return;
+        }
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                ThreadContext.setApplication(current);
+                try {
+                    warmUp(current.getApplicationSettings().getClassResolver(), current.getPageFactory());
+                } finally {
+                    ThreadContext.detach();
+                }
+            }
+        }, "PAX Wicket warm-up " + applicationName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void warmUp(IClassResolver classResolver, IPageFactory pageFactory) {
+        long start = System.currentTimeMillis();
+        for (String pageClassName : warmUpPages) {
+            warmUpPage(classResolver, pageFactory, pageClassName);
+        }
+        LOGGER.debug("Warm-up of {} pages of application {} took {} ms",
+            new Object[]{ warmUpPages.length, applicationName, System.currentTimeMillis() - start });
+    }
+
+    private void warmUpPage(IClassResolver classResolver, IPageFactory pageFactory, String pageClassName) {
+        try {
+            Class<?> pageClass = classResolver.resolveClass(pageClassName);
+            if (IRequestablePage.class.isAssignableFrom(pageClass)) {
+                pageFactory.isBookmarkable(pageClass.asSubclass(IRequestablePage.class));
+            } else {
+                LOGGER.warn("Warm-up page {} of application {} is no page", pageClassName, applicationName);
+            }
+        } catch (ClassNotFoundException e) {
+            LOGGER.warn("Warm-up page {} of application {} not found", pageClassName, applicationName);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Warm-up of page {} of application {} failed", new Object[]{ pageClassName, applicationName,
+                e });
+        }
+    }
+
     private class WebApplicationWrapper implements MethodInterceptor {
 
         private PaxWicketPageFactory pageFactory;
         private DelegatingClassResolver delegatingClassResolver;
         private DelegatingComponentInstanciationListener delegatingComponentInstanciationListener;
         private PageMounterTracker mounterTracker;
+        private PaxWicketSerializationDiagnostics serializationDiagnostics;
 
         public Object intercept(Object object, Method method, Object[] args, MethodProxy methodProxy) throws Throwable {
             if (isFinalizeMethod(method)) {
@@ -181,38 +306,66 @@ public class PaxWicketApplicationFactory implements IWebApplicationFactory {
 
         private void handleInit(WebApplication application) {
             // application.initApplication();
-            delegatingClassResolver = new DelegatingClassResolver(bundleContext, applicationName);
-            delegatingClassResolver.intialize();
+            long start = System.currentTimeMillis();
+            getDelegatingClassResolver();
+            long classResolverDone = System.currentTimeMillis();
 
             delegatingComponentInstanciationListener =
                     new DelegatingComponentInstanciationListener(bundleContext, applicationName);
             delegatingComponentInstanciationListener.intialize();
+            long listenerDone = System.currentTimeMillis();
 
-            application.getFrameworkSettings().setSerializer(new PaxWicketSerializer(getApplicationName()));
+            serializationDiagnostics = PaxWicketSerializationDiagnostics.create(bundleContext);
+            application.getFrameworkSettings().setSerializer(
+                new PaxWicketSerializer(getApplicationName(), bundleContext.getProperty(Constants.SERIALIZATION_FORMAT),
+                    serializationDiagnostics));
             application.getComponentInstantiationListeners().add(new ComponentInstantiationListenerFacade(
                     delegatingComponentInstanciationListener));
             application.getApplicationSettings().setClassResolver(delegatingClassResolver);
+            long serializerDone = System.currentTimeMillis();
             mounterTracker = new PageMounterTracker(bundleContext, application, getApplicationName());
             mounterTracker.open();
+            long mounterDone = System.currentTimeMillis();
             filterDelegator.start();
+            long filtersDone = System.currentTimeMillis();
+            LOGGER.debug("Initialization of application {} took {} ms (class resolver {} ms, component instantiation "
+                    + "listener {} ms, serializer {} ms, page mounters {} ms, filters {} ms)",
+                new Object[]{ applicationName, filtersDone - start, classResolverDone - start,
+                    listenerDone - classResolverDone, serializerDone - listenerDone, mounterDone - serializerDone,
+                    filtersDone - mounterDone });
         }
 
         private IPageFactory handleNewPageFactory() {
             if (pageFactory == null) {
-                pageFactory = new PaxWicketPageFactory(bundleContext, applicationName);
+                pageFactory = new PaxWicketPageFactory(bundleContext, applicationName, getDelegatingClassResolver());
                 pageFactory.initialize();
             }
             return pageFactory;
         }
 
+        /**
+         * The page factory is created by wicket before the application is initialized, so the class resolver is
+         * created by whoever needs it first
+         */
+        private DelegatingClassResolver getDelegatingClassResolver() {
+            if (delegatingClassResolver == null) {
+                delegatingClassResolver = new DelegatingClassResolver(bundleContext, applicationName);
+                delegatingClassResolver.intialize();
+            }
+            return delegatingClassResolver;
+        }
+
         private void handleOnDestroy() {
+            application = null;
             PaxWicketPageFactory old = pageFactory;
             pageFactory = null;
             old.dispose();
             delegatingClassResolver.dispose();
+            delegatingClassResolver = null;
             delegatingComponentInstanciationListener.dispose();
             mounterTracker.close();
             filterDelegator.stop();
+            serializationDiagnostics.dispose();
         }
 
     }
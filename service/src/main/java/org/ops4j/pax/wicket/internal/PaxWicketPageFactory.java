@@ -17,7 +17,8 @@ package org.ops4j.pax.wicket.internal;
 
 import static org.ops4j.lang.NullArgumentException.validateNotNull;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.wicket.IPageFactory;
 import org.apache.wicket.request.component.IRequestablePage;
@@ -35,14 +36,34 @@ public final class PaxWicketPageFactory implements IPageFactory {
 
     private final BundleContext bundleContext;
     private final String applicationName;
-    private final HashMap<Class<? extends IRequestablePage>, PageFactory<? extends IRequestablePage>> contents;
+    private final DelegatingClassResolver classResolver;
+    private final ConcurrentMap<Class<? extends IRequestablePage>, PageFactory<? extends IRequestablePage>> contents;
+    /**
+     * Used for all pages without an own {@link PageFactory}, it caches constructors and bookmarkable checks. Replaced
+     * by a new one whenever a page factory or a bundle of the application goes away, so the cache neither keeps
+     * classes of removed bundles nor stale answers.
+     */
+    private volatile DefaultPageFactory defaultPageFactory;
+    /**
+     * The {@link DelegatingClassResolver#getRemovedBundleCount()} the default page factory was created for
+     */
+    private volatile int removedBundleCount;
 
     private ServiceTracker<PageFactory<? extends IRequestablePage>, PageFactory<? extends IRequestablePage>> m_pageTracker;
 
-    public PaxWicketPageFactory(BundleContext context, String applicationName) throws IllegalArgumentException {
+    /**
+     * @param classResolver the class resolver of the application, tells about removed bundles; may be
+     *        <code>null</code>
+     */
+    public PaxWicketPageFactory(BundleContext context, String applicationName, DelegatingClassResolver classResolver)
+        throws IllegalArgumentException {
         validateNotNull(context, "context");
         validateNotNull(applicationName, "applicationName");
-        contents = new HashMap<Class<? extends IRequestablePage>, PageFactory<? extends IRequestablePage>>();
+        contents =
+            new ConcurrentHashMap<Class<? extends IRequestablePage>, PageFactory<? extends IRequestablePage>>();
+        this.classResolver = classResolver;
+        removedBundleCount = classResolver != null ? classResolver.getRemovedBundleCount() : 0;
+        defaultPageFactory = new DefaultPageFactory();
         bundleContext = context;
         this.applicationName = applicationName;
     }
@@ -53,10 +74,20 @@ public final class PaxWicketPageFactory implements IPageFactory {
     }
 
     public final void dispose() {
-        synchronized (this) {
-            contents.clear();
-            m_pageTracker.close();
+        m_pageTracker.close();
+        contents.clear();
+        defaultPageFactory = new DefaultPageFactory();
+    }
+
+    private DefaultPageFactory getDefaultPageFactory() {
+        if (classResolver != null) {
+            int currentCount = classResolver.getRemovedBundleCount();
+            if (currentCount != removedBundleCount) {
+                removedBundleCount = currentCount;
+                defaultPageFactory = new DefaultPageFactory();
+            }
         }
+        return defaultPageFactory;
     }
 
     /**
@@ -73,7 +104,7 @@ public final class PaxWicketPageFactory implements IPageFactory {
         if (content != null) {
             return content.createPage(new PageParameters());
         }
-        return new DefaultPageFactory().newPage(pageClass);
+        return getDefaultPageFactory().newPage(pageClass);
     }
 
     /**
@@ -93,37 +124,32 @@ public final class PaxWicketPageFactory implements IPageFactory {
         if (content != null) {
             return content.createPage(parameters);
         }
-        return new DefaultPageFactory().newPage(pageClass, parameters);
+        return getDefaultPageFactory().newPage(pageClass, parameters);
     }
 
     @SuppressWarnings("unchecked")
     private <C extends IRequestablePage> PageFactory<C> getFactory(final Class<C> pageClass) {
-        PageFactory<C> content;
-        synchronized (this) {
-            content = (PageFactory<C>) contents.get(pageClass);
-        }
-        return content;
+        return (PageFactory<C>) contents.get(pageClass);
     }
 
     public <C extends IRequestablePage> boolean isBookmarkable(Class<C> pageClass) {
-        return new DefaultPageFactory().isBookmarkable(pageClass);
+        return getDefaultPageFactory().isBookmarkable(pageClass);
     }
 
     public void add(PageFactory<? extends IRequestablePage> pageSource)
         throws IllegalArgumentException {
         validateNotNull(pageSource, "pageSource");
         Class<? extends IRequestablePage> pageClass = pageSource.getPageClass();
-        validateNotNull(pageSource, "pageClass");
-        synchronized (this) {
-            contents.put(pageClass, pageSource);
-        }
+        validateNotNull(pageClass, "pageClass");
+        contents.put(pageClass, pageSource);
     }
 
     public final void remove(PageFactory<? extends IRequestablePage> pageSource) throws IllegalArgumentException {
         validateNotNull(pageSource, "pageSource");
 
-        synchronized (this) {
-            contents.remove(pageSource.getPageClass());
+        // only remove the mapping if it was not replaced by another page source in the meantime
+        if (contents.remove(pageSource.getPageClass(), pageSource)) {
+            defaultPageFactory = new DefaultPageFactory();
         }
     }
 
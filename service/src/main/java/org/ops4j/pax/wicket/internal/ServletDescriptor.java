@@ -44,6 +44,7 @@ public final class ServletDescriptor {
     private final Dictionary<?, ?> contextParams;
     private final String alias;
     private final List<HttpService> services;
+    private boolean disposed;
 
     public ServletDescriptor(Servlet servlet, String alias, Bundle bundle,
                 Map<?, ?> contextParams) {
@@ -57,8 +58,8 @@ public final class ServletDescriptor {
     }
 
     /**
-     * register the service with the given {@link HttpService} if not already registered and the given service is not
-     * <code>null</code>
+     * register the service with the given {@link HttpService} if not already registered, the given service is not
+     * <code>null</code> and the descriptor has not been disposed
      * 
      * @param service
      * @throws NamespaceException if the registration fails because the alias is already in use.
@@ -66,20 +67,27 @@ public final class ServletDescriptor {
      *         already been registered at a different alias.
      * @throws NamespaceException when the servlet is currently registered under a different {@link HttpService}
      */
-    public synchronized void register(HttpService service) throws ServletException, NamespaceException,
-            IllegalStateException {
-        if (service != null) {
-            if (!this.services.contains(service)) {
-                LOG.info("register new servlet on mountpoint {} with contextParams {}", getAlias(),
-                        contextParams);
-                service.registerServlet(getAlias(), servlet, contextParams, httpContext);
-                this.services.add(service);
-            } else {
-                throw new IllegalStateException("the servlet is already registered with another HttpService");
-            }
+    public synchronized void register(HttpService service) throws ServletException, NamespaceException {
+        if (disposed) {
+            LOG.debug("servlet on mountpoint {} has been removed before it was registered", getAlias());
+            return;
+        }
+        if (service != null && !this.services.contains(service)) {
+            LOG.info("register new servlet on mountpoint {} with contextParams {}", getAlias(),
+                    contextParams);
+            service.registerServlet(getAlias(), servlet, contextParams, httpContext);
+            this.services.add(service);
         }
     }
 
+    /**
+     * Unregister the servlet and prevent any further registration
+     */
+    public synchronized void dispose() {
+        disposed = true;
+        unregister();
+    }
+
     /**
      * Unregister a servlet if already registered. After this call it is save to register the servlet again
      */
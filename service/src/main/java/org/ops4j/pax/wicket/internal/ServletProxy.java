@@ -15,173 +15,180 @@
  */
 package org.ops4j.pax.wicket.internal;
 
-import static java.lang.reflect.Proxy.isProxyClass;
-import static java.lang.reflect.Proxy.newProxyInstance;
 import static org.ops4j.lang.NullArgumentException.validateNotNull;
 
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Method;
+import java.io.IOException;
 
 import javax.servlet.Servlet;
+import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.UnavailableException;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.wicket.protocol.http.WicketFilter;
 import org.apache.wicket.protocol.http.WicketServlet;
+import org.ops4j.pax.wicket.internal.filter.FilterDelegator;
 
 /**
  * @author edward.yakop@gmail.com
  */
 public class ServletProxy {
 
-    private static final Class<?>[] SERVLET_INTERFACES = new Class[]{
-        Servlet.class
-    };
-
     static Servlet newServletProxy(PaxWicketApplicationFactory applicationFactory) {
-        ServletInvocationHandler ih = new ServletInvocationHandler(applicationFactory);
-        return newServletProxy(ih);
+        return newServletProxy(applicationFactory, new ServletDelegator(applicationFactory));
     }
 
-    private static Servlet newServletProxy(ServletInvocationHandler ih) {
-        ClassLoader classLoader = ServletProxy.class.getClassLoader();
-        return (Servlet) newProxyInstance(classLoader, SERVLET_INTERFACES, ih);
+    /**
+     * @param delegator the servlet the requests are finally dispatched to, initialized together with the application
+     */
+    static Servlet newServletProxy(PaxWicketApplicationFactory applicationFactory, Servlet delegator) {
+        return new ServletFacade(applicationFactory, delegator);
     }
 
-    private static class ServletInvocationHandler implements InvocationHandler {
-
-        private static final Class<?>[] REQUEST_INTERFACES = new Class[]{
-            HttpServletRequest.class
-        };
+    /**
+     * The servlet registered for an application, it sends each request through the filters of the application to the
+     * {@link ServletDelegator}. The delegator, and with it the application, is initialized when the servlet is
+     * initialized or, for applications with lazy startup, on the first request. Once destroyed it is never initialized
+     * again and rejects requests.
+     */
+    private static final class ServletFacade implements Servlet {
 
-        private final ServletDelegator delegator;
+        private final Servlet delegator;
         private final PaxWicketApplicationFactory internalFactory;
+        private final boolean rootMountPoint;
 
-        public ServletInvocationHandler(PaxWicketApplicationFactory internalFactory) {
+        private volatile ServletConfig servletConfig;
+        private volatile boolean initialized;
+        private volatile boolean destroyed;
+
+        public ServletFacade(PaxWicketApplicationFactory internalFactory, Servlet delegator) {
             this.internalFactory = internalFactory;
-            delegator = new ServletDelegator(internalFactory);
+            String mountPoint = internalFactory.getMountPoint();
+            validateNotNull(mountPoint, "mountPoint");
+            rootMountPoint = mountPoint.length() == 0 || mountPoint.equals("/");
+            this.delegator = delegator;
             internalFactory.getFilterDelegator().setServlet(delegator);
         }
 
-        public Object invoke(Object proxy, Method method, Object[] args)
-            throws Throwable {
-            replaceHttpRequestArgument(args);
-            if (internalFactory.getFilterDelegator() != null) {
-                if (method.getName().equals("service")) {
-                    internalFactory.getFilterDelegator().doFilter((HttpServletRequest) args[0],
-                        (HttpServletResponse) args[1]);
-                    return null;
-                }
+        public void init(ServletConfig config) throws ServletException {
+            servletConfig = config;
+            if (!internalFactory.isLazyStartup()) {
+                initDelegator();
             }
-            return method.invoke(delegator, args);
         }
 
-        private void replaceHttpRequestArgument(Object[] args) {
-            if (args == null || args.length == 0) {
+        private synchronized void initDelegator() throws ServletException {
+            if (destroyed) {
+                throw new UnavailableException("Application " + internalFactory.getApplicationName()
+                        + " has been removed");
+            }
+            if (initialized) {
                 return;
             }
+            delegator.init(servletConfig);
+            initialized = true;
+            internalFactory.warmUp();
+        }
+
+        public ServletConfig getServletConfig() {
+            return servletConfig;
+        }
 
-            for (int i = 0; i < args.length; i++) {
-                Object arg = args[i];
-                if (arg == null) {
-                    continue;
-                }
-
-                Class<?> argumentClass = arg.getClass();
-                if (HttpServletRequest.class.isAssignableFrom(argumentClass) &&
-                        !isProxyClass(argumentClass)) {
-                    HttpServletRequest request = (HttpServletRequest) arg;
-                    // Replace the request
-                    args[i] = newProxyRequest(request);
-                }
+        public void service(ServletRequest request, ServletResponse response) throws ServletException, IOException {
+            if (!initialized || destroyed) {
+                initDelegator();
+            }
+            if (rootMountPoint && request instanceof HttpServletRequest && !(request instanceof RootMountPointRequest)) {
+                request = new RootMountPointRequest((HttpServletRequest) request);
+            }
+            FilterDelegator filterDelegator = internalFactory.getFilterDelegator();
+            if (filterDelegator != null) {
+                filterDelegator.doFilter((HttpServletRequest) request, (HttpServletResponse) response);
+            } else {
+                delegator.service(request, response);
             }
         }
 
-        private HttpServletRequest newProxyRequest(HttpServletRequest request) {
-            ClassLoader loader = ServletProxy.class.getClassLoader();
-            ServletRequestInvocationHandler ih =
-                new ServletRequestInvocationHandler(request, internalFactory.getMountPoint());
-            return (HttpServletRequest) newProxyInstance(loader, REQUEST_INTERFACES, ih);
+        public String getServletInfo() {
+            return delegator.getServletInfo();
         }
 
-        private static final class ServletDelegator extends WicketServlet {
+        public synchronized void destroy() {
+            destroyed = true;
+            if (initialized) {
+                delegator.destroy();
+            }
+        }
 
-            private static final long serialVersionUID = 1L;
+        @Override
+        public String toString() {
+            return delegator.toString();
+        }
+    }
 
-            private static final String WICKET_REQUIRED_ATTRIBUTE = "javax.servlet.context.tempdir";
+    private static final class ServletDelegator extends WicketServlet {
 
-            private final PaxWicketApplicationFactory appFactory;
+        private static final long serialVersionUID = 1L;
 
-            ServletDelegator(PaxWicketApplicationFactory applicationFactory) throws IllegalArgumentException {
-                appFactory = applicationFactory;
-            }
+        private static final String WICKET_REQUIRED_ATTRIBUTE = "javax.servlet.context.tempdir";
 
-            @Override
-            protected WicketFilter newWicketFilter() {
-                ServletContext servletContext = getServletContext();
-                if (servletContext.getAttribute(WICKET_REQUIRED_ATTRIBUTE) == null) {
-                    servletContext.setAttribute(WICKET_REQUIRED_ATTRIBUTE, appFactory.getTmpDir());
-                }
-                return new PaxWicketFilter(appFactory);
-            }
+        private final PaxWicketApplicationFactory appFactory;
 
-            @Override
-            public String getServletName() {
-                return appFactory.getApplicationName();
-            }
+        ServletDelegator(PaxWicketApplicationFactory applicationFactory) throws IllegalArgumentException {
+            appFactory = applicationFactory;
+        }
 
-            @Override
-            public String toString() {
-                return "Pax Wicket Servlet";
+        @Override
+        protected WicketFilter newWicketFilter() {
+            ServletContext servletContext = getServletContext();
+            if (servletContext.getAttribute(WICKET_REQUIRED_ATTRIBUTE) == null) {
+                servletContext.setAttribute(WICKET_REQUIRED_ATTRIBUTE, appFactory.getTmpDir());
             }
+            return new PaxWicketFilter(appFactory);
         }
 
-        private static class ServletRequestInvocationHandler
-                implements InvocationHandler {
+        @Override
+        public String getServletName() {
+            return appFactory.getApplicationName();
+        }
 
-            private final HttpServletRequest m_request;
-            private final String m_mountPoint;
+        @Override
+        public String toString() {
+            return "Pax Wicket Servlet";
+        }
+    }
 
-            private ServletRequestInvocationHandler(HttpServletRequest request, String mountPoint)
-                throws IllegalArgumentException {
-                validateNotNull(request, "request");
-                validateNotNull(mountPoint, "mountPoint");
+    /**
+     * Presents a request to an application mounted at the root as if it had no context and servlet path, the servlet
+     * path of the original request becomes the path info
+     */
+    static final class RootMountPointRequest extends HttpServletRequestWrapper {
 
-                m_request = request;
+        private final String pathInfo;
 
-                if (mountPoint.length() <= 1) {
-                    if (mountPoint.startsWith("/")) {
-                        mountPoint = mountPoint.substring(1);
-                    }
-                } else {
-                    if (!mountPoint.startsWith("/")) {
-                        mountPoint = "/" + mountPoint;
-                    }
-                }
-                m_mountPoint = mountPoint;
-            }
+        RootMountPointRequest(HttpServletRequest request) throws IllegalArgumentException {
+            super(request);
+            pathInfo = request.getServletPath();
+        }
 
-            public Object invoke(Object proxy, Method method, Object[] arguments)
-                throws Throwable {
-                String methodName = method.getName();
-
-                Object returnValue;
-                if (m_mountPoint.length() == 0) {
-                    if ("getContextPath".equals(methodName) ||
-                            "getServletPath".equals(methodName)) {
-                        returnValue = "";
-                    } else if ("getPathInfo".equals(methodName)) {
-                        returnValue = m_request.getServletPath();
-                    } else {
-                        returnValue = method.invoke(m_request, arguments);
-                    }
-                } else {
-                    returnValue = method.invoke(m_request, arguments);
-                }
-
-                return returnValue;
-            }
+        @Override
+        public String getContextPath() {
+            return "";
+        }
+
+        @Override
+        public String getServletPath() {
+            return "";
+        }
+
+        @Override
+        public String getPathInfo() {
+            return pathInfo;
         }
     }
 
@@ -77,9 +77,22 @@ public class BundleDelegatingExtensionTracker implements
         }
     }
 
+    /**
+     * The delegating services only depend on the application name, so they are only rebuilt if it changed. The bundles
+     * are then added again reusing their already analysed packages and mount point candidates.
+     */
     public void modifiedService(ServiceReference<WebApplicationFactory<?>> reference, WebApplicationFactory<?> service) {
         synchronized (this) {
-            removeServicesForServiceReference(reference);
+            BundleDelegatingClassResolver classResolver = classResolvers.get(reference);
+            if (classResolver != null) {
+                String applicationName = (String) reference.getProperty(Constants.APPLICATION_NAME);
+                if (applicationName == null ? classResolver.getApplicationName() == null : applicationName
+                    .equals(classResolver.getApplicationName())) {
+                    LOGGER.debug("Application name of {} unchanged, keeping the delegating services", reference);
+                    return;
+                }
+                removeServicesForServiceReference(reference);
+            }
             addServicesForServiceReference(reference);
             reevaluateAllBundles(reference);
         }
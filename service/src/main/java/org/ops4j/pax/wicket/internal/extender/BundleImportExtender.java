@@ -16,9 +16,9 @@
 package org.ops4j.pax.wicket.internal.extender;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.ops4j.pax.wicket.internal.extender.ExtendedBundle.ExtendedBundleContext;
 import org.osgi.framework.Bundle;
@@ -27,6 +27,7 @@ import org.osgi.framework.BundleEvent;
 import org.osgi.framework.SynchronousBundleListener;
 import org.osgi.framework.hooks.weaving.WeavingHook;
 import org.osgi.framework.hooks.weaving.WovenClass;
+import org.osgi.framework.wiring.BundleRevision;
 import org.osgi.framework.wiring.BundleWiring;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,7 +40,11 @@ public class BundleImportExtender implements WeavingHook, SynchronousBundleListe
 
     private static final Logger LOGGER = LoggerFactory.getLogger(BundleImportExtender.class);
 
-    private final Set<Long> extendedBundles = new HashSet<Long>();
+    /**
+     * The revision of each bundle the import enhancements have been decided for, keyed by bundle id. A new revision of
+     * an updated or refreshed bundle replaces the old one.
+     */
+    private final ConcurrentMap<Long, BundleRevision> extendedBundles = new ConcurrentHashMap<Long, BundleRevision>();
 
     private final List<String> additionalImports = new ArrayList<String>();
 
@@ -60,16 +65,24 @@ public class BundleImportExtender implements WeavingHook, SynchronousBundleListe
     public void weave(WovenClass wovenClass) {
         try {
             BundleWiring bundleWiring = wovenClass.getBundleWiring();
+            BundleRevision revision = bundleWiring.getRevision();
             Bundle bundle = bundleWiring.getBundle();
-            synchronized (extendedBundles) {
-                if (extendedBundles.contains(bundle.getBundleId())) {
-                    // Nothing to do
-                    return;
-                }
-                extendedBundles.add(bundle.getBundleId());
+            Long bundleId = bundle.getBundleId();
+            BundleRevision decidedRevision = extendedBundles.get(bundleId);
+            if (decidedRevision == revision) {
+                // Nothing to do
+                return;
             }
             ExtendedBundle extendedBundle = new ExtendedBundle(extendedBundleContext, bundle);
-            if (extendedBundle.isRelevantForImportEnhancements()) {
+            boolean relevant = extendedBundle.isRelevantForImportEnhancements();
+            boolean decided =
+                decidedRevision == null ? extendedBundles.putIfAbsent(bundleId, revision) == null : extendedBundles
+                    .replace(bundleId, decidedRevision, revision);
+            if (!decided) {
+                // a concurrent class definition of the bundle made the decision
+                return;
+            }
+            if (relevant) {
                 LOGGER.debug("Enhance DynamicImports of bundle {}...", bundle.getSymbolicName());
                 wovenClass.getDynamicImports().addAll(additionalImports);
             }
@@ -80,15 +93,12 @@ public class BundleImportExtender implements WeavingHook, SynchronousBundleListe
     }
 
     public void bundleChanged(BundleEvent event) {
-        // Remove bundle from cache in some circumstances
+        // Updated and refreshed bundles get a new revision anyway, drop the old one to not keep it reachable
         switch (event.getType()) {
             case BundleEvent.UPDATED:
             case BundleEvent.UNINSTALLED:
             case BundleEvent.UNRESOLVED:
-            case BundleEvent.STOPPED:
-                synchronized (extendedBundles) {
-                    extendedBundles.remove(event.getBundle().getBundleId());
-                }
+                extendedBundles.remove(event.getBundle().getBundleId());
         }
     }
 }
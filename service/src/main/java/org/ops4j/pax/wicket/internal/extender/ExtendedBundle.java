@@ -15,24 +15,29 @@
  */
 package org.ops4j.pax.wicket.internal.extender;
 
+import java.net.URL;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.ops4j.pax.wicket.api.Constants;
 import org.ops4j.pax.wicket.api.PaxWicketMountPoint;
-import org.ops4j.pax.wicket.internal.Activator;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Filter;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.Version;
+import org.osgi.framework.wiring.BundleCapability;
 import org.osgi.framework.wiring.BundleRequirement;
 import org.osgi.framework.wiring.BundleWire;
 import org.osgi.framework.wiring.BundleWiring;
@@ -62,6 +67,10 @@ public class ExtendedBundle {
 
     private final ExtendedBundleContext bundleContext;
 
+    private volatile Set<String> packageNames;
+
+    private volatile Collection<String> mountPointCandidates;
+
     /**
      * @param bundle
      */
@@ -122,7 +131,7 @@ public class ExtendedBundle {
      */
     public boolean isPAXWicket() {
         String symbolicName = getBundle().getSymbolicName();
-        if (symbolicName.equals(Activator.getBundleContext().getBundle().getSymbolicName())) {
+        if (symbolicName.equals(bundleContext.paxBundleContext.getBundle().getSymbolicName())) {
             return true;
         }
         return false;
@@ -134,6 +143,16 @@ public class ExtendedBundle {
      */
     public boolean isImportingWicket() {
         BundleWiring bundleWiring = bundle.adapt(BundleWiring.class);
+        WiringAnalysis analysis = bundleContext.getWiringAnalysis(bundleWiring);
+        synchronized (analysis) {
+            if (analysis.importingWicket == null || !analysis.importingWicket && analysis.isOutdated(bundleWiring)) {
+                analysis.importingWicket = analyseImportingWicket(bundleWiring);
+            }
+            return analysis.importingWicket;
+        }
+    }
+
+    private boolean analyseImportingWicket(BundleWiring bundleWiring) {
         // First check if there is a wiring to any package of org.apache.wicket
         List<BundleWire> importPackageWires = bundleWiring.getRequiredWires(OSGI_WIRING_PACKAGE_NAMESPACE);
         for (BundleWire bundleWire : importPackageWires) {
@@ -146,19 +165,12 @@ public class ExtendedBundle {
                 }
             }
         }
+        // then check if any of the required bundles is one of the apache.wicket bundles
         List<BundleWire> requireBundleWires = bundleWiring.getRequiredWires(OSGI_WIRING_BUNDLE_NAMESPACE);
-        if (!requireBundleWires.isEmpty()) {
-            // find all apache.wicket bundles and check if there are wirings...
-            Bundle[] bundles = bundleContext.paxBundleContext.getBundles();
-            for (Bundle bundle : bundles) {
-                String symbolicName = bundle.getSymbolicName();
-                if (symbolicName.startsWith(APACHE_WICKET_NAMESPACE)) {
-                    Map<String, Object> map = createMapWithVersion(OSGI_WIRING_BUNDLE_NAMESPACE, symbolicName,
-                        bundle.getVersion());
-                    if (hasWireMatchingFilter(requireBundleWires, map)) {
-                        return true;
-                    }
-                }
+        for (BundleWire bundleWire : requireBundleWires) {
+            String symbolicName = bundleWire.getProviderWiring().getBundle().getSymbolicName();
+            if (symbolicName != null && symbolicName.startsWith(APACHE_WICKET_NAMESPACE)) {
+                return true;
             }
         }
         return false;
@@ -169,8 +181,18 @@ public class ExtendedBundle {
      * @return <code>true</code> if this bundle imports anything from the org.ops4j.pax.wicket.api Namespace
      */
     public boolean isImportingPAXWicketAPI() {
-        // Check if there is a package wiring (either static or dynamic)
         BundleWiring bundleWiring = bundle.adapt(BundleWiring.class);
+        WiringAnalysis analysis = bundleContext.getWiringAnalysis(bundleWiring);
+        synchronized (analysis) {
+            if (analysis.importingPAXWicketAPI == null || !analysis.importingPAXWicketAPI && analysis.isOutdated(bundleWiring)) {
+                analysis.importingPAXWicketAPI = analyseImportingPAXWicketAPI(bundleWiring);
+            }
+            return analysis.importingPAXWicketAPI;
+        }
+    }
+
+    private boolean analyseImportingPAXWicketAPI(BundleWiring bundleWiring) {
+        // Check if there is a package wiring (either static or dynamic)
         boolean hasPackageImport =
             hasWireMatchingFilter(bundleWiring.getRequiredWires(OSGI_WIRING_PACKAGE_NAMESPACE),
                 bundleContext.importPAXWicketAPI);
@@ -206,50 +228,152 @@ public class ExtendedBundle {
      */
     public Collection<Class<?>> getAllClasses() {
         Set<Class<?>> classList = new HashSet<Class<?>>();
-        Collection<String> resources = bundle.adapt(BundleWiring.class).listResources("/", "*.class",
+        for (String className : getClassNames(bundle)) {
+            Class<?> candidateClass = loadClassEntry(className);
+            if (candidateClass != null) {
+                classList.add(candidateClass);
+            }
+        }
+        return classList;
+    }
+
+    /**
+     * Loads only the classes of the underlying bundle which might be annotated with {@link PaxWicketMountPoint}. The
+     * candidates are found by reading the class files (see {@link MountPointScanner}) once per instance, so unlike
+     * {@link #getAllClasses()} no other class is loaded. The returned classes still have to be checked for the
+     * annotation.
+     * 
+     * @return a Collection of classes conained in this bundle which might be annotated
+     */
+    public Collection<Class<?>> getMountPointCandidateClasses() {
+        Set<Class<?>> classList = new HashSet<Class<?>>();
+        for (String className : getMountPointCandidateClassNames()) {
+            Class<?> candidateClass = loadClassEntry(className);
+            if (candidateClass != null) {
+                classList.add(candidateClass);
+            }
+        }
+        return classList;
+    }
+
+    /**
+     * @return the names of the classes which might be annotated with {@link PaxWicketMountPoint}, determined
+     *         <b>without</b> loading any class and only once per instance
+     */
+    public Collection<String> getMountPointCandidateClassNames() {
+        Collection<String> candidates = mountPointCandidates;
+        if (candidates == null) {
+            candidates = bundleContext.getMountPointScanner().getCandidateClassNames(bundle, getClassNames(bundle));
+            mountPointCandidates = candidates;
+        }
+        return candidates;
+    }
+
+    private Class<?> loadClassEntry(String className) {
+        Class<?> candidateClass = null;
+        try {
+            candidateClass = loadCandidate(className);
+        } catch (NoClassDefFoundError e) {
+            // Its not nice to catch errors, but otherwhise we can't give a nice feedback!
+            String message = e.getMessage();
+            if (message != null) {
+                // In eclipse, the entry for a class is prepend by the "bin-output-folder" (e.g.
+                // bin/my/package/MyClass.class
+                // If we detect this, try to load the real classname that is mentiened in the message
+                Pattern pattern = Pattern.compile("\\(wrong name: (.+)\\)");
+                Matcher matcher = pattern.matcher(message);
+                if (matcher.find()) {
+                    String realname = matcher.group(1);
+                    LOGGER.debug("It seems the entry has a misleading name for class {}, retry with name {}",
+                        className, realname);
+                    candidateClass = loadCandidate(realname.replace('/', '.'));
+                }
+            }
+            if (candidateClass == null) {
+                LOGGER.debug("classloader complains about NoClassDefFoundError while try to load {}",
+                    className, e);
+            }
+        }
+        if (candidateClass == null) {
+            LOGGER
+                .warn(
+                    "Class '{}' was found via bundle {}'s resource path, but classloader can't load it (is the jar file corrupted or a dependant optional dependencies not resolved?)",
+                    getBundle().getSymbolicName(),
+                    className);
+        }
+        return candidateClass;
+    }
+
+    /**
+     * Lists the fully qualified names of all classes contained in the given bundle <b>without</b> loading any of them.
+     * If the bundle is resolved the names are taken relative to its bundle class path, otherwise the raw bundle entries
+     * are used as a fallback.
+     * 
+     * @param bundle the bundle to list the classes for
+     * @return a Collection of class names (e.g. <code>my.package.MyClass$Inner</code>), never <code>null</code>
+     */
+    public static Collection<String> getClassNames(Bundle bundle) {
+        Set<String> classNames = new HashSet<String>();
+        BundleWiring bundleWiring = bundle.adapt(BundleWiring.class);
+        if (bundleWiring != null) {
+            Collection<String> resources = bundleWiring.listResources("/", "*.class",
                 BundleWiring.FINDENTRIES_RECURSE | BundleWiring.LISTRESOURCES_LOCAL);
-        if (resources != null) {
-            for (String resource : resources) {
-                if (resource.charAt(0) == '/') {
-                    resource = resource.substring(1);
+            if (resources != null) {
+                for (String resource : resources) {
+                    classNames.add(toClassName(resource));
                 }
-                String className = resource.substring(0, resource.length() - 6).replaceAll("/", ".");
-                Class<?> candidateClass = null;
-                try {
-                    candidateClass = loadCandidate(className);
-                } catch (NoClassDefFoundError e) {
-                    // Its not nice to catch errors, but otherwhise we can't give a nice feedback!
-                    String message = e.getMessage();
-                    if (message != null) {
-                        // In eclipse, the entry for a class is prepend by the "bin-output-folder" (e.g.
-                        // bin/my/package/MyClass.class
-                        // If we detect this, try to load the real classname that is mentiened in the message
-                        Pattern pattern = Pattern.compile("\\(wrong name: (.+)\\)");
-                        Matcher matcher = pattern.matcher(message);
-                        if (matcher.find()) {
-                            String realname = matcher.group(1);
-                            LOGGER.debug("It seems the entry has a misleading name for class {}, retry with name {}",
-                                className, realname);
-                            candidateClass = loadCandidate(realname.replace('/', '.'));
-                        }
-                    }
-                    if (candidateClass == null) {
-                        LOGGER.debug("classloader complains about NoClassDefFoundError while try to load {}",
-                            className, e);
-                    }
+            }
+        } else {
+            Enumeration<URL> entries = bundle.findEntries("/", "*.class", true);
+            if (entries != null) {
+                while (entries.hasMoreElements()) {
+                    classNames.add(toClassName(entries.nextElement().getPath()));
                 }
-                if (candidateClass != null) {
-                    classList.add(candidateClass);
-                } else {
-                    LOGGER
-                        .warn(
-                            "Class '{}' was found via bundle {}'s resource path, but classloader can't load it (is the jar file corrupted or a dependant optional dependencies not resolved?)",
-                            getBundle().getSymbolicName(),
-                            className);
+            }
+        }
+        return classNames;
+    }
+
+    /**
+     * Lists the packages the underlying bundle provides classes for, that are the packages of its own classes and the
+     * packages it exports. The packages are determined <b>without</b> loading any class and only once per instance.
+     * 
+     * @return an unmodifiable Set of package names, never <code>null</code>
+     */
+    public Set<String> getPackageNames() {
+        Set<String> names = packageNames;
+        if (names == null) {
+            names = new HashSet<String>();
+            for (String className : getClassNames(bundle)) {
+                names.add(getPackageName(className));
+            }
+            BundleWiring bundleWiring = bundle.adapt(BundleWiring.class);
+            if (bundleWiring != null) {
+                for (BundleCapability capability : bundleWiring.getCapabilities(OSGI_WIRING_PACKAGE_NAMESPACE)) {
+                    Object packageName = capability.getAttributes().get(OSGI_WIRING_PACKAGE_NAMESPACE);
+                    if (packageName instanceof String) {
+                        names.add((String) packageName);
+                    }
                 }
             }
+            names = Collections.unmodifiableSet(names);
+            packageNames = names;
         }
-        return classList;
+        return names;
+    }
+
+    /**
+     * @param className a fully qualified class name
+     * @return the package of the class, the empty String for the default package
+     */
+    public static String getPackageName(String className) {
+        int lastDot = className.lastIndexOf('.');
+        return lastDot < 0 ? "" : className.substring(0, lastDot);
+    }
+
+    private static String toClassName(String resource) {
+        int start = resource.charAt(0) == '/' ? 1 : 0;
+        return resource.substring(start, resource.length() - ".class".length()).replace('/', '.');
     }
 
     /**
@@ -271,6 +395,19 @@ public class ExtendedBundle {
         private final Map<String, Object> importPAXWicketAPI;
         private final BundleContext paxBundleContext;
         private final Map<String, Object> requirePAXWicketBundle;
+        private MountPointScanner mountPointScanner;
+
+        /**
+         * The parsed filters of all requirement directives seen so far
+         */
+        private final ConcurrentMap<String, Filter> filters = new ConcurrentHashMap<String, Filter>();
+
+        /**
+         * The analysis results per wiring, guarded by itself; a refreshed bundle gets a new wiring and is analysed
+         * again
+         */
+        private final Map<BundleWiring, WiringAnalysis> wiringAnalyses =
+            new WeakHashMap<BundleWiring, WiringAnalysis>();
 
         public ExtendedBundleContext(BundleContext paxBundleContext) {
             this.requirePAXWicketBundle =
@@ -282,6 +419,37 @@ public class ExtendedBundle {
             this.paxBundleContext = paxBundleContext;
         }
 
+        /**
+         * @return the scanner shared by all bundles of this context, created on first use
+         */
+        public synchronized MountPointScanner getMountPointScanner() {
+            if (mountPointScanner == null) {
+                mountPointScanner = new MountPointScanner(paxBundleContext);
+            }
+            return mountPointScanner;
+        }
+
+        private WiringAnalysis getWiringAnalysis(BundleWiring bundleWiring) {
+            synchronized (wiringAnalyses) {
+                WiringAnalysis analysis = wiringAnalyses.get(bundleWiring);
+                if (analysis == null) {
+                    analysis = new WiringAnalysis(bundleWiring);
+                    wiringAnalyses.put(bundleWiring, analysis);
+                }
+                return analysis;
+            }
+        }
+
+        /**
+         * Stops the threads used for scanning bundles.
+         */
+        public synchronized void dispose() {
+            if (mountPointScanner != null) {
+                mountPointScanner.dispose();
+                mountPointScanner = null;
+            }
+        }
+
         /**
          * @param filterString
          * @param map
@@ -290,7 +458,11 @@ public class ExtendedBundle {
         public boolean matchFilter(String filterString, Map<String, ?> map) {
             if (filterString != null) {
                 try {
-                    Filter filter = paxBundleContext.createFilter(filterString);
+                    Filter filter = filters.get(filterString);
+                    if (filter == null) {
+                        filter = paxBundleContext.createFilter(filterString);
+                        filters.put(filterString, filter);
+                    }
                     if (filter.matches(map)) {
                         LOGGER.trace("filter = {} matches {}", importPAXWicketAPI);
                         return true;
@@ -307,6 +479,45 @@ public class ExtendedBundle {
 
     }
 
+    /**
+     * The memorized answers for a wiring. Positive answers are final, negative ones are re-evaluated once the wiring
+     * got additional (dynamic) package wires. Does not reference the wiring, since it is the value of a weak map
+     * keyed by the wiring.
+     */
+    private static final class WiringAnalysis {
+
+        private int packageWires;
+
+        private Boolean importingWicket;
+
+        private Boolean importingPAXWicketAPI;
+
+        private WiringAnalysis(BundleWiring bundleWiring) {
+            packageWires = countPackageWires(bundleWiring);
+        }
+
+        /**
+         * Has to be called while holding the lock of this analysis.
+         * 
+         * @return <code>true</code> if package wires were added since the last check
+         */
+        private boolean isOutdated(BundleWiring bundleWiring) {
+            int currentPackageWires = countPackageWires(bundleWiring);
+            if (currentPackageWires == packageWires) {
+                return false;
+            }
+            packageWires = currentPackageWires;
+            importingWicket = importingWicket == Boolean.TRUE ? Boolean.TRUE : null;
+            importingPAXWicketAPI = importingPAXWicketAPI == Boolean.TRUE ? Boolean.TRUE : null;
+            return true;
+        }
+
+        private static int countPackageWires(BundleWiring bundleWiring) {
+            List<BundleWire> wires = bundleWiring.getRequiredWires(OSGI_WIRING_PACKAGE_NAMESPACE);
+            return wires == null ? 0 : wires.size();
+        }
+    }
+
     private static Map<String, Object> createMapWithVersion(String key, Object value, Version version) {
         Map<String, Object> map = new HashMap<String, Object>();
         map.put(key, value);
@@ -0,0 +1,333 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.extender;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.ops4j.pax.wicket.api.PaxWicketMountPoint;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.wiring.BundleWiring;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds the classes of a bundle annotated with {@link PaxWicketMountPoint} by reading the constant pools of the class
+ * files instead of loading the classes, so that neither classes are defined nor lazy bundles activated. Every class
+ * file referencing the annotation is a candidate which still has to be checked by loading it. Larger bundles are
+ * scanned in parallel and the candidates are stored in the data area of the PAX Wicket bundle, so that unchanged
+ * bundles are not scanned again after a restart.
+ */
+public class MountPointScanner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MountPointScanner.class);
+
+    private static final byte[] MOUNT_POINT_DESCRIPTOR;
+
+    static {
+        try {
+            MOUNT_POINT_DESCRIPTOR =
+                ("L" + PaxWicketMountPoint.class.getName().replace('.', '/') + ";").getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not supported", e);
+        }
+    }
+
+    private static final int CLASS_FILE_MAGIC = 0xCAFEBABE;
+
+    /**
+     * Number of class files scanned by one task
+     */
+    private static final int CLASSES_PER_TASK = 64;
+
+    private static final String CACHE_DIRECTORY = "mountpoints";
+
+    private final BundleContext paxBundleContext;
+
+    private final ExecutorService executor;
+
+    public MountPointScanner(BundleContext paxBundleContext) {
+        this.paxBundleContext = paxBundleContext;
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "PAX Wicket mount point scanner");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public void dispose() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @param bundle the bundle to scan
+     * @param classNames the names of all classes contained in the bundle
+     * @return the names of the classes referencing the {@link PaxWicketMountPoint} annotation
+     */
+    public Collection<String> getCandidateClassNames(Bundle bundle, Collection<String> classNames) {
+        File cacheFile = getCacheFile(bundle);
+        Collection<String> candidates = readCache(cacheFile, bundle.getLastModified());
+        if (candidates != null) {
+            LOGGER.debug("Using cached mount point candidates {} of bundle {}", candidates, bundle.getSymbolicName());
+            return candidates;
+        }
+        candidates = scan(bundle, new ArrayList<String>(classNames));
+        writeCache(cacheFile, bundle.getLastModified(), candidates);
+        return candidates;
+    }
+
+    private Collection<String> scan(final Bundle bundle, List<String> classNames) {
+        if (classNames.size() <= CLASSES_PER_TASK) {
+            return scanClasses(bundle, classNames);
+        }
+        List<Callable<List<String>>> tasks = new ArrayList<Callable<List<String>>>();
+        for (int i = 0; i < classNames.size(); i += CLASSES_PER_TASK) {
+            final List<String> chunk = classNames.subList(i, Math.min(i + CLASSES_PER_TASK, classNames.size()));
+            tasks.add(new Callable<List<String>>() {
+                public List<String> call() throws Exception {
+                    return scanClasses(bundle, chunk);
+                }
+            });
+        }
+        List<String> candidates = new ArrayList<String>();
+        try {
+            for (Future<List<String>> result : executor.invokeAll(tasks)) {
+                candidates.addAll(result.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.debug("Interrupted while scanning bundle {} in parallel", bundle.getSymbolicName());
+            return scanClasses(bundle, classNames);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Scanning bundle " + bundle.getSymbolicName() + " failed", e.getCause());
+        }
+        return candidates;
+    }
+
+    private static List<String> scanClasses(Bundle bundle, List<String> classNames) {
+        List<String> candidates = new ArrayList<String>();
+        for (String className : classNames) {
+            URL resource = getClassFile(bundle, className);
+            if (resource == null) {
+                // Not a plain entry (e.g. on an embedded class path), let the class be loaded to find out...
+                candidates.add(className);
+                continue;
+            }
+            try {
+                InputStream stream = resource.openStream();
+                try {
+                    if (referencesMountPoint(new DataInputStream(stream))) {
+                        candidates.add(className);
+                    }
+                } finally {
+                    stream.close();
+                }
+            } catch (IOException e) {
+                // Let the class be loaded to find out...
+                LOGGER.debug("Can't read class file of {}, keeping it as candidate", className, e);
+                candidates.add(className);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Checks if the constant pool of the class file contains the descriptor of the {@link PaxWicketMountPoint}
+     * annotation. Class files which can't be parsed are treated as if they do.
+     */
+    static boolean referencesMountPoint(DataInputStream classFile) throws IOException {
+        if (classFile.readInt() != CLASS_FILE_MAGIC) {
+            return false;
+        }
+        // minor and major version
+        classFile.readInt();
+        int constantPoolCount = classFile.readUnsignedShort();
+        byte[] utf8 = new byte[MOUNT_POINT_DESCRIPTOR.length];
+        for (int i = 1; i < constantPoolCount; i++) {
+            int tag = classFile.readUnsignedByte();
+            switch (tag) {
+                case 1: // Utf8
+                    int length = classFile.readUnsignedShort();
+                    if (length == utf8.length) {
+                        classFile.readFully(utf8);
+                        if (Arrays.equals(utf8, MOUNT_POINT_DESCRIPTOR)) {
+                            return true;
+                        }
+                    } else {
+                        classFile.skipBytes(length);
+                    }
+                    break;
+                case 7: // Class
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    classFile.skipBytes(2);
+                    break;
+                case 15: // MethodHandle
+                    classFile.skipBytes(3);
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    classFile.skipBytes(4);
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    classFile.skipBytes(8);
+                    // takes two entries
+                    i++;
+                    break;
+                default:
+                    LOGGER.debug("Unknown constant pool tag {}, can't scan class file", tag);
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Looks the class file up in the content of the bundle and its fragments. The bundle class loader is bypassed on
+     * purpose, for an imported package it would return the class file of the exporting bundle.
+     */
+    private static URL getClassFile(Bundle bundle, String className) {
+        String path = className.replace('.', '/') + ".class";
+        int index = path.lastIndexOf('/');
+        String directory = index < 0 ? "/" : path.substring(0, index);
+        String fileName = path.substring(index + 1);
+        BundleWiring bundleWiring = bundle.adapt(BundleWiring.class);
+        if (bundleWiring != null) {
+            List<URL> entries = bundleWiring.findEntries(directory, fileName, 0);
+            return entries == null || entries.isEmpty() ? null : entries.get(0);
+        }
+        return bundle.getEntry(path);
+    }
+
+    /**
+     * Deletes the cached candidates of the given bundle, to be called once the bundle is uninstalled.
+     * 
+     * @param bundle the uninstalled bundle
+     */
+    public void removeCache(Bundle bundle) {
+        File cacheFile = getCacheFile(bundle);
+        if (cacheFile != null && cacheFile.isFile() && !cacheFile.delete()) {
+            LOGGER.debug("Can't delete mount point cache {}", cacheFile);
+        }
+    }
+
+    private File getCacheFile(Bundle bundle) {
+        File directory = paxBundleContext.getDataFile(CACHE_DIRECTORY);
+        if (directory == null) {
+            // No file system support
+            return null;
+        }
+        return new File(directory, bundle.getBundleId() + ".txt");
+    }
+
+    /**
+     * @return the cached candidates or <code>null</code> if there are none for the given modification time
+     */
+    private static Collection<String> readCache(File cacheFile, long lastModified) {
+        if (cacheFile == null || !cacheFile.isFile()) {
+            return null;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(cacheFile), "UTF-8"));
+            try {
+                if (!String.valueOf(lastModified).equals(reader.readLine())) {
+                    return null;
+                }
+                List<String> candidates = new ArrayList<String>();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.length() > 0) {
+                        candidates.add(line);
+                    }
+                }
+                return candidates;
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Can't read mount point cache {}", cacheFile, e);
+            return null;
+        }
+    }
+
+    private static void writeCache(File cacheFile, long lastModified, Collection<String> candidates) {
+        if (cacheFile == null) {
+            return;
+        }
+        File directory = cacheFile.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            LOGGER.debug("Can't create mount point cache directory {}", directory);
+            return;
+        }
+        // Write to a temporary file first so that an interrupted write never leaves an incomplete cache
+        File temporaryFile = new File(directory, cacheFile.getName() + ".tmp");
+        try {
+            BufferedWriter writer =
+                new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temporaryFile), "UTF-8"));
+            try {
+                writer.write(String.valueOf(lastModified));
+                writer.newLine();
+                for (String candidate : candidates) {
+                    writer.write(candidate);
+                    writer.newLine();
+                }
+            } finally {
+                writer.close();
+            }
+            cacheFile.delete();
+            if (!temporaryFile.renameTo(cacheFile)) {
+                LOGGER.debug("Can't write mount point cache {}", cacheFile);
+                temporaryFile.delete();
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Can't write mount point cache {}", cacheFile, e);
+            temporaryFile.delete();
+        }
+    }
+}
@@ -15,48 +15,251 @@
  */
 package org.ops4j.pax.wicket.internal.extender;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
 import org.ops4j.pax.wicket.internal.extender.ExtendedBundle.ExtendedBundleContext;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
 import org.osgi.util.tracker.BundleTrackerCustomizer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class PaxWicketBundleListener implements BundleTrackerCustomizer<ExtendedBundle> {
+/**
+ * Analyses the tracked bundles and hands the relevant ones to the {@link BundleDelegatingExtensionTracker}. Added
+ * bundles are analysed asynchronously so that the framework threads delivering bundle events are not blocked. Events
+ * of the same bundle are processed in order, events of different bundles in parallel; a removal cancels the analysis
+ * of the bundle if it has not started yet. Use {@link #awaitReady(long, TimeUnit)} to wait until all events received
+ * so far are processed. Registered as {@link BundleListener} as well, to drop the cached data of uninstalled bundles.
+ */
+public class PaxWicketBundleListener implements BundleTrackerCustomizer<ExtendedBundle>, BundleListener {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(PaxWicketBundleListener.class);
 
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+
     private final BundleDelegatingExtensionTracker bundleDelegatingExtensionTracker;
 
     private final ExtendedBundleContext extendedBundleContext;
 
+    private final ExecutorService executor;
+
+    /**
+     * The bundles handed to the {@link BundleDelegatingExtensionTracker}
+     */
+    private final Set<ExtendedBundle> relevantBundles = Collections.synchronizedSet(new HashSet<ExtendedBundle>());
+
+    /**
+     * The pending events per bundle id, guarded by itself
+     */
+    private final Map<Long, BundleQueue> queues = new HashMap<Long, BundleQueue>();
+
+    /**
+     * Number of events not yet processed, guarded by {@link #queues}
+     */
+    private int pendingEvents;
+
     public PaxWicketBundleListener(BundleContext paxBundleContext,
             BundleDelegatingExtensionTracker bundleDelegatingExtensionTracker) {
         this.bundleDelegatingExtensionTracker = bundleDelegatingExtensionTracker;
         extendedBundleContext = new ExtendedBundle.ExtendedBundleContext(paxBundleContext);
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "PAX Wicket bundle processing");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Releases the resources used for analysing bundles, to be called once the tracker using this listener is closed.
+     * Waits a limited time for the events still pending.
+     */
+    public void dispose() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOGGER.warn("Bundle processing did not finish within {} seconds", SHUTDOWN_TIMEOUT_SECONDS);
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        }
+        extendedBundleContext.dispose();
+    }
+
+    /**
+     * Waits until all bundle events received so far are processed, that is the relevant bundles are added to (or
+     * removed from) the applications and their mount points are registered.
+     * 
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout
+     * @return <code>true</code> if all events are processed, <code>false</code> if the timeout elapsed before
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+        synchronized (queues) {
+            while (pendingEvents > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                queues.wait(remaining);
+            }
+            return true;
+        }
     }
 
     public ExtendedBundle addingBundle(Bundle bundle, BundleEvent event) {
-        ExtendedBundle extendedBundle =
-            new ExtendedBundle(extendedBundleContext, bundle);
+        ExtendedBundle extendedBundle = new ExtendedBundle(extendedBundleContext, bundle);
+        // Track every bundle, whether it is relevant is analysed asynchronously
+        enqueue(bundle, new AddBundle(extendedBundle));
+        return extendedBundle;
+    }
+
+    public void modifiedBundle(Bundle bundle, BundleEvent event, ExtendedBundle object) {
+        // we don't care about state changes (for now)
+    }
+
+    public void removedBundle(final Bundle bundle, BundleEvent event, final ExtendedBundle object) {
+        synchronized (queues) {
+            BundleQueue queue = queues.get(bundle.getBundleId());
+            if (queue != null) {
+                // the bundle is gone, analysing it is pointless
+                for (Iterator<Runnable> iterator = queue.events.iterator(); iterator.hasNext();) {
+                    if (iterator.next() instanceof AddBundle) {
+                        iterator.remove();
+                        pendingEvents--;
+                    }
+                }
+            }
+        }
+        // Queued behind an analysis already running for the bundle
+        enqueue(bundle, new Runnable() {
+            public void run() {
+                if (relevantBundles.remove(object)) {
+                    bundleDelegatingExtensionTracker.removeRelevantBundle(object);
+                    LOGGER.debug("{} is removed as a relevant bundle for pax wicket", bundle.getSymbolicName());
+                }
+            }
+        });
+    }
+
+    public void bundleChanged(BundleEvent event) {
+        if (event.getType() == BundleEvent.UNINSTALLED) {
+            final Bundle bundle = event.getBundle();
+            // Queued behind a scan possibly still writing the cache
+            enqueue(bundle, new Runnable() {
+                public void run() {
+                    extendedBundleContext.getMountPointScanner().removeCache(bundle);
+                }
+            });
+        }
+    }
+
+    private void addBundle(ExtendedBundle extendedBundle) {
         if (extendedBundle.isImportingPAXWicketAPI() || extendedBundle.isImportingWicket()) {
+            // Analyse the bundle before handing it over, so this is done in parallel for several bundles
+            extendedBundle.getPackageNames();
+            if (extendedBundle.isRelevantForMountPointAnnotations()) {
+                extendedBundle.getMountPointCandidateClassNames();
+            }
+            relevantBundles.add(extendedBundle);
             bundleDelegatingExtensionTracker.addRelevantBundle(extendedBundle);
-            LOGGER.info("{} is added as a relevant bundle for pax wicket", bundle.getSymbolicName());
-            return extendedBundle;
-        } else {
-            // No need to track this...
-            return null;
+            LOGGER.info("{} is added as a relevant bundle for pax wicket", extendedBundle.getBundle().getSymbolicName());
         }
     }
 
-    public void modifiedBundle(Bundle bundle, BundleEvent event, ExtendedBundle object) {
-        // we don't care about state changes (for now)
+    private void enqueue(Bundle bundle, Runnable event) {
+        BundleQueue queue;
+        synchronized (queues) {
+            pendingEvents++;
+            queue = queues.get(bundle.getBundleId());
+            if (queue != null) {
+                queue.events.add(event);
+                return;
+            }
+            queue = new BundleQueue(bundle.getBundleId());
+            queue.events.add(event);
+            queues.put(bundle.getBundleId(), queue);
+        }
+        try {
+            executor.execute(queue);
+        } catch (RejectedExecutionException e) {
+            // Already disposed, process the remaining events directly
+            queue.run();
+        }
     }
 
-    public void removedBundle(Bundle bundle, BundleEvent event, ExtendedBundle object) {
-        bundleDelegatingExtensionTracker.removeRelevantBundle(object);
-        LOGGER.debug("{} is removed as a relevant bundle for pax wicket", bundle.getSymbolicName());
+    /**
+     * Analyses an added bundle, cancelled if the bundle is removed before
+     */
+    private final class AddBundle implements Runnable {
+
+        private final ExtendedBundle extendedBundle;
+
+        private AddBundle(ExtendedBundle extendedBundle) {
+            this.extendedBundle = extendedBundle;
+        }
+
+        public void run() {
+            addBundle(extendedBundle);
+        }
+    }
+
+    /**
+     * Processes the events of a single bundle in order, running until no more events are pending for the bundle.
+     */
+    private final class BundleQueue implements Runnable {
+
+        private final Long bundleId;
+
+        private final LinkedList<Runnable> events = new LinkedList<Runnable>();
+
+        private BundleQueue(Long bundleId) {
+            this.bundleId = bundleId;
+        }
+
+        public void run() {
+            while (true) {
+                Runnable event;
+                synchronized (queues) {
+                    event = events.poll();
+                    if (event == null) {
+                        queues.remove(bundleId);
+                        return;
+                    }
+                }
+                try {
+                    event.run();
+                } catch (RuntimeException e) {
+                    LOGGER.error("Processing bundle {} failed", bundleId, e);
+                } finally {
+                    synchronized (queues) {
+                        pendingEvents--;
+                        if (pendingEvents == 0) {
+                            queues.notifyAll();
+                        }
+                    }
+                }
+            }
+        }
     }
 
 }
@@ -40,13 +40,19 @@ public final class FilterDelegator {
     private static final Logger LOGGER = LoggerFactory.getLogger(FilterDelegator.class);
 
     private final ServiceTracker<FilterFactory, FilterFactoryReference> filterTracker;
+    private final FilterTrackerCustomizer customizer;
     private final String applicationName;
 
     private Servlet servlet;
 
+    /**
+     * The filters and chain created for the current references and servlet, rebuilt if either of them changed
+     */
+    private volatile Filters filters;
+
     public FilterDelegator(BundleContext context, String applicationName) {
         this.applicationName = applicationName;
-        FilterTrackerCustomizer customizer = new FilterTrackerCustomizer(context, applicationName);
+        customizer = new FilterTrackerCustomizer(context, applicationName);
         filterTracker =
             new ServiceTracker<FilterFactory, FilterFactoryReference>(context, customizer.createOsgiFilter(),
                 customizer);
@@ -72,18 +78,29 @@ public final class FilterDelegator {
 
     public void doFilter(HttpServletRequest servletRequest, HttpServletResponse servletResponse)
         throws ServletException, IOException {
-        FilterChain chain =
-            new PAXWicketFilterChain(getFiltersSortedWithHighestPriorityAsFirstFilter(servlet.getServletConfig()),
-                servlet);
-        chain.doFilter(servletRequest, servletResponse);
+        Servlet current = servlet;
+        getFilters(current, current.getServletConfig()).chain.doFilter(servletRequest, servletResponse);
     }
 
     public List<Filter> getFiltersSortedWithHighestPriorityAsFirstFilter(ServletConfig servletConfig) {
-        FilterFactoryReference[] factories = filterTracker.getServices(new FilterFactoryReference[0]);
+        return new ArrayList<Filter>(Arrays.asList(getFilters(servlet, servletConfig).filters));
+    }
+
+    private Filters getFilters(Servlet servlet, ServletConfig servletConfig) {
+        FilterFactoryReference[] factories = customizer.getSortedReferences();
+        Filters current = filters;
+        if (current == null || current.factories != factories || current.servlet != servlet
+                || current.servletConfig != servletConfig) {
+            current = new Filters(factories, servlet, servletConfig, createFilters(factories, servletConfig));
+            filters = current;
+        }
+        return current;
+    }
+
+    private static Filter[] createFilters(FilterFactoryReference[] factories, ServletConfig servletConfig) {
         List<Filter> filters = new ArrayList<Filter>();
-        if (factories != null && factories.length > 0) {
+        if (factories.length > 0) {
             LOGGER.debug("Retrieved {} factories to create filters to apply", factories.length);
-            Arrays.sort(factories);
             for (FilterFactoryReference filterFactory : factories) {
                 try {
                     filters
@@ -95,7 +112,7 @@ public final class FilterDelegator {
                 }
             }
         }
-        return filters;
+        return filters.toArray(new Filter[filters.size()]);
     }
 
     public void setServlet(Servlet servlet) {
@@ -103,4 +120,29 @@ public final class FilterDelegator {
         this.servlet = servlet;
     }
 
+    /**
+     * The filters created by the factories for a servlet config and the chain dispatching them to the servlet
+     */
+    private static final class Filters {
+
+        private final FilterFactoryReference[] factories;
+
+        private final Servlet servlet;
+
+        private final ServletConfig servletConfig;
+
+        private final Filter[] filters;
+
+        private final FilterChain chain;
+
+        private Filters(FilterFactoryReference[] factories, Servlet servlet, ServletConfig servletConfig,
+                Filter[] filters) {
+            this.factories = factories;
+            this.servlet = servlet;
+            this.servletConfig = servletConfig;
+            this.filters = filters;
+            chain = new PAXWicketFilterChain(filters, servlet);
+        }
+    }
+
 }
@@ -20,6 +20,10 @@ import static org.ops4j.lang.NullArgumentException.validateNotNull;
 import static org.ops4j.pax.wicket.api.Constants.APPLICATION_NAME;
 import static org.osgi.framework.Constants.OBJECTCLASS;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import org.ops4j.pax.wicket.api.FilterFactory;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.InvalidSyntaxException;
@@ -39,6 +43,11 @@ public final class FilterTrackerCustomizer implements ServiceTrackerCustomizer<F
 
     private final BundleContext bundleContext;
 
+    /**
+     * The tracked references in filter order, replaced but never modified on every change
+     */
+    private volatile FilterFactoryReference[] references = new FilterFactoryReference[0];
+
     public FilterTrackerCustomizer(BundleContext bundleContext, String applicationName) {
         validateNotNull(bundleContext, "bundleContext");
         validateNotEmpty(applicationName, "applicationName");
@@ -50,6 +59,8 @@ public final class FilterTrackerCustomizer implements ServiceTrackerCustomizer<F
         FilterFactory filterFactory = bundleContext.getService(reference);
         if (filterFactory != null) {
             FilterFactoryReference factoryReference = new FilterFactoryReference(filterFactory);
+            factoryReference.setProperties(reference);
+            updateReferences(factoryReference, true);
             LOGGER.debug("added FilterFactory {} for application {}", filterFactory.getClass().getName(),
                 applicationName);
             return factoryReference;
@@ -60,12 +71,17 @@ public final class FilterTrackerCustomizer implements ServiceTrackerCustomizer<F
     public void modifiedService(ServiceReference<FilterFactory> reference, FilterFactoryReference service) {
         if (service != null) {
             service.setProperties(reference);
+            // the order might have changed
+            updateReferences(service, true);
             LOGGER.debug("updated FilterFactory {} for application {}", service.getFactory().getClass().getName(),
                 applicationName);
         }
     }
 
     public void removedService(ServiceReference<FilterFactory> reference, FilterFactoryReference service) {
+        if (service != null) {
+            updateReferences(service, false);
+        }
         bundleContext.ungetService(reference);
         if (service != null) {
             service.dispose();
@@ -73,6 +89,25 @@ public final class FilterTrackerCustomizer implements ServiceTrackerCustomizer<F
         }
     }
 
+    /**
+     * @return the references of all tracked filter factories sorted in the order their filters are applied; the array
+     *         is only replaced when the tracked services change and must not be modified
+     */
+    public FilterFactoryReference[] getSortedReferences() {
+        return references;
+    }
+
+    private synchronized void updateReferences(FilterFactoryReference reference, boolean present) {
+        List<FilterFactoryReference> updated = new ArrayList<FilterFactoryReference>(Arrays.asList(references));
+        updated.remove(reference);
+        if (present) {
+            updated.add(reference);
+        }
+        FilterFactoryReference[] sorted = updated.toArray(new FilterFactoryReference[updated.size()]);
+        Arrays.sort(sorted);
+        references = sorted;
+    }
+
     public org.osgi.framework.Filter createOsgiFilter()
         throws IllegalArgumentException {
         org.osgi.framework.Filter filter;
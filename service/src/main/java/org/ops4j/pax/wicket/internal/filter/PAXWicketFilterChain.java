@@ -30,30 +30,52 @@ import org.slf4j.LoggerFactory;
 
 /**
  * The {@link PAXWicketFilterChain} is responsible for dispatching registered filters if applicable and finally to the
- * {@link Servlet} if all filters are respected
+ * {@link Servlet} if all filters are respected. Every element of the chain is immutable and bound to one position, so a
+ * chain can be built once and shared between concurrent, re-entrant and asynchronous requests.
  */
 public class PAXWicketFilterChain implements FilterChain {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(PAXWicketFilterChain.class);
 
-    private int filterIndex = 0;
-    private final List<Filter> filters;
+    private final int filterIndex;
+    private final int size;
+    private final Filter filter;
+    private final PAXWicketFilterChain next;
 
     private final Servlet delegateServlet;
 
     public PAXWicketFilterChain(List<Filter> filter, Servlet delegateServlet) {
-        filters = filter;
+        this(filter.toArray(new Filter[filter.size()]), delegateServlet);
+    }
+
+    /**
+     * @param filters the filters to apply in order
+     * @param delegateServlet the servlet called after all filters
+     */
+    public PAXWicketFilterChain(Filter[] filters, Servlet delegateServlet) {
+        this(filters, 0, delegateServlet);
+    }
+
+    private PAXWicketFilterChain(Filter[] filters, int filterIndex, Servlet delegateServlet) {
+        this.filterIndex = filterIndex;
+        size = filters.length;
         this.delegateServlet = delegateServlet;
+        if (filterIndex < size) {
+            filter = filters[filterIndex];
+            next = new PAXWicketFilterChain(filters, filterIndex + 1, delegateServlet);
+        } else {
+            filter = null;
+            next = null;
+        }
     }
 
     public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
-        int size = filters.size();
-        if (filterIndex < size) {
-            Filter filter = filters.get(filterIndex);
-            LOGGER.debug("call filter {}/{} of type {} ",
-                new Object[]{ (filterIndex + 1), size, filter.getClass().getName() });
-            filterIndex++;
-            filter.doFilter(request, response, this);
+        if (filter != null) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("call filter {}/{} of type {} ",
+                    new Object[]{ filterIndex + 1, size, filter.getClass().getName() });
+            }
+            filter.doFilter(request, response, next);
         } else {
             LOGGER.debug("No more filters in chain, delegate to servlet");
             delegateServlet.service(request, response);
@@ -16,19 +16,23 @@
 package org.ops4j.pax.wicket.internal.injection;
 
 import java.lang.reflect.Field;
-import java.net.URL;
 import java.util.ArrayList;
-import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 
 import net.sf.cglib.proxy.Factory;
 
 import org.ops4j.pax.wicket.api.PaxWicketBean;
+import org.ops4j.pax.wicket.internal.extender.ExtendedBundle;
 import org.ops4j.pax.wicket.spi.OverwriteProxy;
 import org.ops4j.pax.wicket.spi.ProxyTargetLocator;
 import org.ops4j.pax.wicket.spi.ProxyTargetLocatorFactory;
+import org.ops4j.pax.wicket.util.proxy.ILazyInitProxy;
 import org.ops4j.pax.wicket.util.proxy.LazyInitProxyFactory;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -46,41 +50,47 @@ public class BundleAnalysingComponentInstantiationListener extends AbstractPaxWi
 
     private static final Logger LOGGER = LoggerFactory.getLogger(BundleAnalysingComponentInstantiationListener.class);
 
+    /**
+     * Marks the start of the generated part of a class name, e.g. <code>MyPage$$EnhancerByCGLIB$$1a2b3c</code>
+     */
+    private static final String GENERATED_CLASS_SEPARATOR = "$$";
+
     private final BundleContext bundleContext;
-    private String bundleResources = "";
+    private final String bundleSymbolicName;
+    private final Set<String> bundleClassNames;
     private final String defaultInjectionSource;
 
     private final ServiceTracker<ProxyTargetLocatorFactory, ProxyTargetLocatorFactory> tracker;
 
+    private final ConcurrentMap<Class<?>, InjectableField[]> injectionPlans =
+        new ConcurrentHashMap<Class<?>, InjectableField[]>();
+    private final ConcurrentMap<SharedProxyKey, SharedProxy> sharedProxies =
+        new ConcurrentHashMap<SharedProxyKey, SharedProxy>();
+
     public BundleAnalysingComponentInstantiationListener(BundleContext bundleContext, String defaultInjectionSource,
             ServiceTracker<ProxyTargetLocatorFactory, ProxyTargetLocatorFactory> tracker) {
         this.bundleContext = bundleContext;
         this.defaultInjectionSource = defaultInjectionSource;
         this.tracker = tracker;
-        // TODO use ExtendedBundle instead
-        Enumeration<URL> entries = bundleContext.getBundle().findEntries("/", "*.class", true);
-        if (entries == null) {
-            // bundle with no .class files (see PAXWICKET-305)
-            return;
-        }
-        while (entries.hasMoreElements()) {
-            String urlRepresentation =
-                entries.nextElement().toExternalForm().replace("bundle://.+?/", "").replace('/', '.');
-            LOGGER.trace("Found entry {} in bundle {}", urlRepresentation, bundleContext.getBundle().getSymbolicName());
-            bundleResources += urlRepresentation;
-        }
+        Bundle bundle = bundleContext.getBundle();
+        bundleSymbolicName = bundle.getSymbolicName();
+        // bundles with no .class files (see PAXWICKET-305) simply end up with an empty index
+        bundleClassNames = new HashSet<String>(ExtendedBundle.getClassNames(bundle));
+        LOGGER.trace("Indexed {} classes of bundle {}", bundleClassNames.size(), bundleSymbolicName);
     }
 
     public boolean injectionPossible(Class<?> component) {
         String name = component.getName();
-        LOGGER.debug("Try to find class {} in bundle {}", name, bundleContext.getBundle().getSymbolicName());
-        String searchString = name.replaceAll("\\$\\$.*", "");
-        searchString = searchString.replaceAll("\\$", "\\\\\\$"); // for nested and anonymous classes
-        if (bundleResources.matches(".*" + searchString + ".*")) {
-            LOGGER.trace("Found class {} in bundle {}", name, bundleContext.getBundle().getSymbolicName());
+        int generatedPart = name.indexOf(GENERATED_CLASS_SEPARATOR);
+        if (generatedPart > 0) {
+            // generated subclasses (e.g. CGLIB) are never part of the bundle, their superclass is
+            name = name.substring(0, generatedPart);
+        }
+        if (bundleClassNames.contains(name)) {
+            LOGGER.trace("Found class {} in bundle {}", name, bundleSymbolicName);
             return true;
         }
-        LOGGER.trace("Class {} not available in bundle {}", name, bundleContext.getBundle().getSymbolicName());
+        LOGGER.trace("Class {} not available in bundle {}", name, bundleSymbolicName);
         return false;
     }
 
@@ -102,39 +112,24 @@ public class BundleAnalysingComponentInstantiationListener extends AbstractPaxWi
             }
             Thread.currentThread().setContextClassLoader(realClass.getClassLoader());
 
-            List<Field> fields = getSingleLevelOfFields(realClass);
-            for (Field field : fields) {
-                if (!field.isAnnotationPresent(PaxWicketBean.class)) {
-                    continue;
-                }
-                PaxWicketBean annotation = field.getAnnotation(PaxWicketBean.class);
-                String fieldInjectionSource = annotation.injectionSource();
-                if (fieldInjectionSource != null && fieldInjectionSource.length() > 0) {
-                    injectionSource = fieldInjectionSource;
+            for (InjectableField injectableField : getInjectionPlan(realClass)) {
+                if (injectableField.injectionSource != null) {
+                    injectionSource = injectableField.injectionSource;
                 }
-                if (field.getType().equals(BundleContext.class)) {
+                if (injectableField.bundleContextField) {
                     // Is this the special BundleContext type?
                     ClassLoader classLoader = realClass.getClassLoader();
                     if (classLoader instanceof BundleReference) {
                         BundleReference bundleReference = (BundleReference) classLoader;
                         Bundle bundle = bundleReference.getBundle();
-                        setField(component, field, bundle.getBundleContext());
+                        setField(component, injectableField.field, bundle.getBundleContext());
                     }
+                } else if (injectableField.shared) {
+                    setField(component, injectableField.field,
+                        getSharedProxy(injectableField, realClass, overwrites, injectionSource));
                 } else {
-                    ProxyTargetLocator locator =
-                        createProxyTargetLocator(field, realClass, overwrites, injectionSource);
-                    if (locator != null) {
-                        Object proxy = LazyInitProxyFactory.createProxy(getBeanType(field),
-                            locator);
-                        setField(component, field, proxy);
-                    } else {
-                        if (field.getType().isPrimitive()) {
-                            throw new IllegalStateException("The primitive field " + field.getName()
-                                    + " is not allowed to be set to null");
-                        } else {
-                            setField(component, field, null);
-                        }
-                    }
+                    setField(component, injectableField.field,
+                        createProxy(injectableField, realClass, overwrites, injectionSource));
                 }
             }
         } finally {
@@ -142,9 +137,78 @@ public class BundleAnalysingComponentInstantiationListener extends AbstractPaxWi
         }
     }
 
-    private ProxyTargetLocator createProxyTargetLocator(Field field, final Class<?> page,
+    private Object createProxy(InjectableField injectableField, Class<?> page, Map<String, String> overwrites,
+            String injectionSource) {
+        ProxyTargetLocator locator = createProxyTargetLocator(injectableField, page, overwrites, injectionSource);
+        if (locator != null) {
+            return LazyInitProxyFactory.createProxy(injectableField.beanType, locator);
+        }
+        Field field = injectableField.field;
+        if (field.getType().isPrimitive()) {
+            throw new IllegalStateException("The primitive field " + field.getName()
+                    + " is not allowed to be set to null");
+        }
+        return null;
+    }
+
+    /**
+     * Returns the proxy shared by all fields requesting the same bean (see {@link PaxWicketBean#shared()}). Shared
+     * proxies are dropped as soon as the available {@link ProxyTargetLocatorFactory}s change.
+     */
+    private Object getSharedProxy(InjectableField injectableField, Class<?> page, Map<String, String> overwrites,
+            String injectionSource) {
+        SharedProxyKey key =
+            new SharedProxyKey(injectableField.beanType, injectableField.annotation, overwrites,
+                injectionSource);
+        int trackingCount = tracker.getTrackingCount();
+        SharedProxy sharedProxy = sharedProxies.get(key);
+        if (sharedProxy != null && sharedProxy.trackingCount == trackingCount) {
+            return sharedProxy.proxy;
+        }
+        Object proxy = createProxy(injectableField, page, overwrites, injectionSource);
+        if (proxy instanceof ILazyInitProxy) {
+            // only real proxies are shared, located values (e.g. of primitive fields) could change
+            sharedProxies.put(key, new SharedProxy(proxy, trackingCount));
+        }
+        return proxy;
+    }
+
+    /**
+     * Returns the {@link PaxWicketBean} annotated fields declared by exactly this class. The result is computed once
+     * per class; since an instance of this listener only lives as long as the bundle it was created for the cached
+     * information never outlives the classes it refers to.
+     */
+    private InjectableField[] getInjectionPlan(Class<?> clazz) {
+        InjectableField[] plan = injectionPlans.get(clazz);
+        if (plan == null) {
+            List<Field> fields = getSingleLevelOfFields(clazz);
+            plan = new InjectableField[fields.size()];
+            for (int i = 0; i < plan.length; i++) {
+                Field field = fields.get(i);
+                plan[i] = new InjectableField(field, getBeanType(field));
+            }
+            InjectableField[] existing = injectionPlans.putIfAbsent(clazz, plan);
+            if (existing != null) {
+                plan = existing;
+            }
+        }
+        return plan;
+    }
+
+    private ProxyTargetLocator createProxyTargetLocator(InjectableField injectableField, final Class<?> page,
             Map<String, String> overwrites,
             String injectionSource) {
+        Field field = injectableField.field;
+        if (overwrites == null) {
+            // fast path: reuse the factory which served this field before as long as no factory came or went
+            ProxyTargetLocator locator =
+                injectableField.createLocatorFromChosenFactory(bundleContext, page, injectionSource,
+                    tracker.getTrackingCount());
+            if (locator != null) {
+                return locator;
+            }
+        }
+        int trackingCount = tracker.getTrackingCount();
         ProxyTargetLocatorFactory[] factories = tracker.getServices(EMPTY_ARRAY);
         if (factories.length == 0) {
             // If no factories are present we will wait for 5 seconds for at least one
@@ -156,6 +220,7 @@ public class BundleAnalysingComponentInstantiationListener extends AbstractPaxWi
             }
         }
         List<ProxyTargetLocator> locators = new ArrayList<ProxyTargetLocator>(1);
+        ProxyTargetLocatorFactory chosenFactory = null;
         for (ProxyTargetLocatorFactory factory : factories) {
             if (factory == null) {
                 continue;
@@ -167,6 +232,9 @@ public class BundleAnalysingComponentInstantiationListener extends AbstractPaxWi
                     ProxyTargetLocator locator =
                         factory.createProxyTargetLocator(bundleContext, field, page, overwrites);
                     if (locator != null) {
+                        if (locators.isEmpty()) {
+                            chosenFactory = factory;
+                        }
                         locators.add(locator);
                     }
                 } catch (RuntimeException e) {
@@ -177,7 +245,7 @@ public class BundleAnalysingComponentInstantiationListener extends AbstractPaxWi
             }
         }
         if (locators.isEmpty()) {
-            if (field.getAnnotation(PaxWicketBean.class).allowNull()) {
+            if (injectableField.annotation.allowNull()) {
                 return null;
             } else {
                 throw new IllegalStateException(
@@ -193,6 +261,9 @@ public class BundleAnalysingComponentInstantiationListener extends AbstractPaxWi
                         "More than one injection source could be considered for field [{}] in class [{}] to archive consistent behaviour use an explicit injection source",
                         field.getName(), page.getName());
             }
+            if (overwrites == null) {
+                injectableField.chooseFactory(chosenFactory, injectionSource, trackingCount);
+            }
             return locators.get(0);
         }
 
@@ -220,4 +291,129 @@ public class BundleAnalysingComponentInstantiationListener extends AbstractPaxWi
         return sb;
     }
 
+    /**
+     * The reflective information required to inject a single {@link PaxWicketBean} annotated field, together with the
+     * {@link ProxyTargetLocatorFactory} which was able to serve it the last time.
+     */
+    private static final class InjectableField {
+
+        private final Field field;
+        private final PaxWicketBean annotation;
+        private final Class<?> beanType;
+        private final String injectionSource;
+        private final boolean bundleContextField;
+        private final boolean shared;
+
+        private volatile FactoryChoice factoryChoice;
+
+        private InjectableField(Field field, Class<?> beanType) {
+            this.field = field;
+            this.beanType = beanType;
+            annotation = field.getAnnotation(PaxWicketBean.class);
+            String fieldInjectionSource = annotation.injectionSource();
+            if (fieldInjectionSource != null && fieldInjectionSource.length() > 0) {
+                injectionSource = fieldInjectionSource;
+            } else {
+                injectionSource = null;
+            }
+            bundleContextField = field.getType().equals(BundleContext.class);
+            shared = annotation.shared();
+        }
+
+        private void chooseFactory(ProxyTargetLocatorFactory factory, String injectionSource, int trackingCount) {
+            factoryChoice = new FactoryChoice(factory, injectionSource, trackingCount);
+        }
+
+        /**
+         * @return a locator created by the previously chosen factory or <code>null</code> if the factories had been
+         *         changed meanwhile or the chosen factory can't serve the field any longer
+         */
+        private ProxyTargetLocator createLocatorFromChosenFactory(BundleContext bundleContext, Class<?> page,
+                String injectionSource, int trackingCount) {
+            FactoryChoice choice = factoryChoice;
+            if (choice == null || choice.trackingCount != trackingCount
+                    || !isSameInjectionSource(choice.injectionSource, injectionSource)) {
+                return null;
+            }
+            try {
+                return choice.factory.createProxyTargetLocator(bundleContext, field, page, null);
+            } catch (RuntimeException e) {
+                LOGGER.debug("Previously chosen ProxyTargetLocatorFactory {} failed, query all factories again",
+                    choice.factory.getName(), e);
+                return null;
+            }
+        }
+
+        private static boolean isSameInjectionSource(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+    private static final class FactoryChoice {
+
+        private final ProxyTargetLocatorFactory factory;
+        private final String injectionSource;
+        private final int trackingCount;
+
+        private FactoryChoice(ProxyTargetLocatorFactory factory, String injectionSource, int trackingCount) {
+            this.factory = factory;
+            this.injectionSource = injectionSource;
+            this.trackingCount = trackingCount;
+        }
+    }
+
+    private static final class SharedProxyKey {
+
+        private final Class<?> beanType;
+        /**
+         * All attributes of the annotation, such as name and service retention, have to match
+         */
+        private final PaxWicketBean annotation;
+        private final Map<String, String> overwrites;
+        private final String injectionSource;
+
+        private SharedProxyKey(Class<?> beanType, PaxWicketBean annotation, Map<String, String> overwrites,
+                String injectionSource) {
+            this.beanType = beanType;
+            this.annotation = annotation;
+            this.overwrites = overwrites;
+            this.injectionSource = injectionSource;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof SharedProxyKey)) {
+                return false;
+            }
+            SharedProxyKey other = (SharedProxyKey) obj;
+            return beanType.equals(other.beanType) && annotation.equals(other.annotation)
+                    && (overwrites == null ? other.overwrites == null : overwrites.equals(other.overwrites))
+                    && (injectionSource == null ? other.injectionSource == null
+                            : injectionSource.equals(other.injectionSource));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = beanType.hashCode();
+            result = 31 * result + annotation.hashCode();
+            result = 31 * result + (overwrites != null ? overwrites.hashCode() : 0);
+            result = 31 * result + (injectionSource != null ? injectionSource.hashCode() : 0);
+            return result;
+        }
+    }
+
+    private static final class SharedProxy {
+
+        private final Object proxy;
+        private final int trackingCount;
+
+        private SharedProxy(Object proxy, int trackingCount) {
+            this.proxy = proxy;
+            this.trackingCount = trackingCount;
+        }
+    }
+
 }
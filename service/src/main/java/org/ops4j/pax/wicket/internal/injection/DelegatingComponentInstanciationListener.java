@@ -22,6 +22,8 @@ import static org.osgi.framework.Constants.OBJECTCLASS;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import net.sf.cglib.proxy.Factory;
 
@@ -43,6 +45,8 @@ public final class DelegatingComponentInstanciationListener extends AbstractPaxW
     private final BundleContext context;
     private final String applicationName;
     private final List<PaxWicketInjector> resolvers;
+    private final Map<Class<?>, Integer> hierarchicalFieldCounts = new WeakHashMap<Class<?>, Integer>();
+    private final Map<Class<?>, Integer> singleLevelFieldCounts = new WeakHashMap<Class<?>, Integer>();
 
     private ComponentInstanciationListenerTracker tracker;
 
@@ -81,7 +85,7 @@ public final class DelegatingComponentInstanciationListener extends AbstractPaxW
 
     public void inject(Object toInject, Class<?> toHandle) {
         // TODO: [PAXWICKET-265] With a new approach we can remove the
-        int foundAnnotation = countComponentContainPaxWicketBeanAnnotatedFieldsHierachical(toHandle);
+        int foundAnnotation = countAnnotatedFields(toHandle, true);
         if (foundAnnotation == 0) {
             LOGGER.trace("Component {} doesn't contain any PaxWicketBean fields. Therefore ignore", toInject
                 .getClass().getName());
@@ -101,11 +105,10 @@ public final class DelegatingComponentInstanciationListener extends AbstractPaxW
                         // if we reach here the bean had been injected correctly
                         if (handledFactory) {
                             handledAnnotations +=
-                                countComponentContainPaxWicketBeanAnnotatedOneLevel(currentAnalysingClass
-                                    .getSuperclass());
+                                countAnnotatedFields(currentAnalysingClass.getSuperclass(), false);
                         } else {
                             handledAnnotations +=
-                                countComponentContainPaxWicketBeanAnnotatedOneLevel(currentAnalysingClass);
+                                countAnnotatedFields(currentAnalysingClass, false);
                         }
                         // once we've found it we could take the next level
                         break;
@@ -127,6 +130,26 @@ public final class DelegatingComponentInstanciationListener extends AbstractPaxW
         }
     }
 
+    /**
+     * The number of {@link org.ops4j.pax.wicket.api.PaxWicketBean} annotated fields never changes for a class, so it is
+     * only computed once. Both maps are weak so that classes of refreshed or uninstalled bundles can still be unloaded.
+     */
+    private int countAnnotatedFields(Class<?> clazz, boolean hierarchical) {
+        Map<Class<?>, Integer> counts = hierarchical ? hierarchicalFieldCounts : singleLevelFieldCounts;
+        synchronized (counts) {
+            Integer count = counts.get(clazz);
+            if (count == null) {
+                if (hierarchical) {
+                    count = countComponentContainPaxWicketBeanAnnotatedFieldsHierachical(clazz);
+                } else {
+                    count = countComponentContainPaxWicketBeanAnnotatedOneLevel(clazz);
+                }
+                counts.put(clazz, count);
+            }
+            return count;
+        }
+    }
+
     private final class ComponentInstanciationListenerTracker extends
             ServiceTracker<PaxWicketInjector, PaxWicketInjector> {
 
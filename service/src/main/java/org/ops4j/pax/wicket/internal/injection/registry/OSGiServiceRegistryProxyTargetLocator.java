@@ -17,8 +17,15 @@
  */
 package org.ops4j.pax.wicket.internal.injection.registry;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
 
+import org.ops4j.pax.wicket.api.Constants;
 import org.ops4j.pax.wicket.api.NoBeanAvailableForInjectionException;
 import org.ops4j.pax.wicket.api.PaxWicketBean;
 import org.ops4j.pax.wicket.spi.ProxyTarget;
@@ -27,6 +34,8 @@ import org.ops4j.pax.wicket.spi.ReleasableProxyTarget;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleReference;
 import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
 import org.osgi.framework.ServiceReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,6 +44,11 @@ import org.slf4j.LoggerFactory;
  * This class locates the ProxyTarget through the OSGi service registry. It will locate an arbitary service by the
  * service class if the bean name is not specified. If a bean name is specified, it tries to locate a Declarative
  * Component with the given name and service interface
+ * <p>
+ * By default the service is released after each call. If a service retention is configured (see
+ * {@link PaxWicketBean#serviceRetention()} and {@link Constants#SERVICE_RETENTION}) the service is kept across calls
+ * and only released once it was not used for the retention time or when it is unregistered.
+ * </p>
  * 
  * @author Christoph Läubrich
  * 
@@ -44,6 +58,18 @@ public class OSGiServiceRegistryProxyTargetLocator implements ProxyTargetLocator
     private static final Logger LOGGER = LoggerFactory.getLogger(OSGiServiceRegistryProxyTargetLocator.class);
 
     private static final long serialVersionUID = -5726156325232163363L;
+
+    /**
+     * Releases retained services once they are idle, created on first use
+     */
+    private static Timer retentionTimer;
+
+    /**
+     * All targets currently holding a retained service, guarded by the class
+     */
+    private static final Set<ReleasableProxyTargetImplementation> RETAINED_TARGETS =
+        new HashSet<ReleasableProxyTargetImplementation>();
+
     private final BundleContext bundleContext;
     private final String componentName;
 
@@ -51,6 +77,13 @@ public class OSGiServiceRegistryProxyTargetLocator implements ProxyTargetLocator
 
     private final Class<?> parent;
 
+    private final long serviceRetention;
+
+    /**
+     * The shared references of the matching services if tracked by the factory, not available after deserialization
+     */
+    private final transient RankedServiceReferences rankedReferences;
+
     /**
      * @param pageClass
      * @param serviceClass
@@ -58,7 +91,17 @@ public class OSGiServiceRegistryProxyTargetLocator implements ProxyTargetLocator
      */
     public OSGiServiceRegistryProxyTargetLocator(BundleContext callingContext, PaxWicketBean annotation,
             Class<?> serviceClass, Class<?> pageClass) {
+        this(callingContext, annotation, serviceClass, pageClass, null);
+    }
+
+    /**
+     * @param rankedReferences tracked references of the services matching {@link #getServiceFilter(String, String)}
+     *        used instead of querying the service registry, might be <code>null</code>
+     */
+    OSGiServiceRegistryProxyTargetLocator(BundleContext callingContext, PaxWicketBean annotation,
+            Class<?> serviceClass, Class<?> pageClass, RankedServiceReferences rankedReferences) {
         this.parent = pageClass;
+        this.rankedReferences = rankedReferences;
         if (pageClass.getClassLoader() instanceof BundleReference) {
             // Fetch the Bundlecontext of the page class to locate the service
             BundleReference reference = (BundleReference) pageClass.getClassLoader();
@@ -70,6 +113,24 @@ public class OSGiServiceRegistryProxyTargetLocator implements ProxyTargetLocator
         }
         componentName = annotation.name();
         serviceInterface = serviceClass.getName();
+        if (annotation.serviceRetention() >= 0) {
+            serviceRetention = annotation.serviceRetention();
+        } else {
+            serviceRetention = getDefaultServiceRetention(bundleContext);
+        }
+    }
+
+    private static long getDefaultServiceRetention(BundleContext context) {
+        String retention = context.getProperty(Constants.SERVICE_RETENTION);
+        if (retention == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(retention.trim()));
+        } catch (NumberFormatException e) {
+            LOGGER.warn("Ignoring invalid value {} of property {}", retention, Constants.SERVICE_RETENTION);
+            return 0;
+        }
     }
 
     /*
@@ -78,10 +139,18 @@ public class OSGiServiceRegistryProxyTargetLocator implements ProxyTargetLocator
      * @see org.ops4j.pax.wicket.util.proxy.IProxyTargetLocator#locateProxyTarget()
      */
     public ReleasableProxyTarget locateProxyTarget() {
-        ServiceReference<?>[] references = fetchReferences();
+        ServiceReference<?>[] references;
+        if (isTracked()) {
+            // Already sorted...
+            references = rankedReferences.getReferences();
+        } else {
+            references = fetchReferences();
+            if (references != null) {
+                // Sort the references...
+                Arrays.sort(references);
+            }
+        }
         if (references != null) {
-            // Sort the references...
-            Arrays.sort(references);
             // Fetch the first (if any)...
             for (final ServiceReference<?> reference : references) {
                 final Object service = bundleContext.getService(reference);
@@ -98,6 +167,10 @@ public class OSGiServiceRegistryProxyTargetLocator implements ProxyTargetLocator
     }
 
     public ServiceReference<?>[] fetchReferences() {
+        if (isTracked()) {
+            ServiceReference<?>[] references = rankedReferences.getReferences();
+            return references == null ? null : references.clone();
+        }
         try {
             String filter = getFilterString();
             LOGGER.debug("Try to locate a suitable service for objectClass = "
@@ -109,6 +182,22 @@ public class OSGiServiceRegistryProxyTargetLocator implements ProxyTargetLocator
         }
     }
 
+    private boolean isTracked() {
+        return rankedReferences != null && rankedReferences.isOpen();
+    }
+
+    /**
+     * @return the filter matching the services located for the given service interface and component name
+     */
+    static String getServiceFilter(String serviceInterface, String componentName) {
+        String objectClassFilter =
+            String.format("(%s=%s)", org.osgi.framework.Constants.OBJECTCLASS, serviceInterface);
+        if (componentName != null && !componentName.trim().equals("")) {
+            return String.format("(&%s(%s=%s))", objectClassFilter, "component.name", componentName);
+        }
+        return objectClassFilter;
+    }
+
     private String getFilterString() {
         boolean hasComponentName = componentName != null && !componentName.trim().equals("");
         String filter;
@@ -120,12 +209,44 @@ public class OSGiServiceRegistryProxyTargetLocator implements ProxyTargetLocator
         return filter;
     }
 
+    /**
+     * Releases all services currently retained and stops the timer releasing idle services.
+     */
+    static void releaseRetainedServices() {
+        List<ReleasableProxyTargetImplementation> retainedTargets;
+        synchronized (OSGiServiceRegistryProxyTargetLocator.class) {
+            retainedTargets = new ArrayList<ReleasableProxyTargetImplementation>(RETAINED_TARGETS);
+            if (retentionTimer != null) {
+                retentionTimer.cancel();
+                retentionTimer = null;
+            }
+        }
+        for (ReleasableProxyTargetImplementation target : retainedTargets) {
+            target.releaseRetainedService();
+        }
+    }
+
+    private static synchronized void retain(ReleasableProxyTargetImplementation target) {
+        RETAINED_TARGETS.add(target);
+    }
+
+    private static synchronized void unretain(ReleasableProxyTargetImplementation target) {
+        RETAINED_TARGETS.remove(target);
+    }
+
+    private static synchronized void schedule(TimerTask task, long delay) {
+        if (retentionTimer == null) {
+            retentionTimer = new Timer("PAX Wicket service retention", true);
+        }
+        retentionTimer.schedule(task, delay);
+    }
+
     /**
      * A releasable Proxy Target for a specific Service Reference
      * 
      * @author Christoph Läubrich
      */
-    private final class ReleasableProxyTargetImplementation implements ReleasableProxyTarget {
+    private final class ReleasableProxyTargetImplementation implements ReleasableProxyTarget, ServiceListener {
         /**
          * the service object
          */
@@ -135,6 +256,22 @@ public class OSGiServiceRegistryProxyTargetLocator implements ProxyTargetLocator
          */
         private final ServiceReference<?> reference;
         private ReleasableProxyTarget delegatingProxy;
+        /**
+         * true while the service is kept across calls
+         */
+        private boolean retained;
+        /**
+         * the time the service was released by the last call
+         */
+        private long lastUsed;
+        /**
+         * the pending task releasing the idle service
+         */
+        private TimerTask idleTask;
+        /**
+         * the number of calls between getTarget and releaseTarget, shared proxies call concurrently
+         */
+        private int users;
 
         /**
          * @param service
@@ -146,6 +283,11 @@ public class OSGiServiceRegistryProxyTargetLocator implements ProxyTargetLocator
         }
 
         public synchronized Object getTarget() throws NoBeanAvailableForInjectionException {
+            if (delegatingProxy != null) {
+                Object delegateService = delegatingProxy.getTarget();
+                users++;
+                return delegateService;
+            }
             if (service == null) {
                 // The service was released before, try to reaquire it...
                 LOGGER.debug("Try to reaquire service...");
@@ -161,28 +303,121 @@ public class OSGiServiceRegistryProxyTargetLocator implements ProxyTargetLocator
                     // If we are here a new ProxyTarget was bound
                     delegatingProxy = newProxyTarget;
                     // Fetch the target from the delegate
-                    service = newProxyTarget.getTarget();
+                    Object delegateService = newProxyTarget.getTarget();
+                    users++;
+                    return delegateService;
                 }
             }
+            users++;
             return service;
         }
 
         public synchronized ProxyTarget releaseTarget() {
-            // When releasing, we unget the service so we don't keep stale references...
-            service = null;
+            if (users > 0) {
+                users--;
+            }
             if (delegatingProxy != null) {
                 // return the delegate proxy for further usage...
                 return delegatingProxy.releaseTarget();
-            } else {
-                try {
-                    bundleContext.ungetService(reference);
-                } catch (RuntimeException e) {
-                    // Sometimes a RuntimeException might occur here, we catch it to not prevent any other
-                    // cleanup actions
-                    LOGGER.trace("RuntimeException while ungetting service", e);
+            }
+            if (serviceRetention > 0) {
+                // Keep the service, it is released once idle or unregistered
+                lastUsed = System.currentTimeMillis();
+                if (service != null && !retained) {
+                    startRetention();
                 }
                 return this;
             }
+            if (users > 0) {
+                // still used by concurrent calls, the last one releases the service
+                return this;
+            }
+            // When releasing, we unget the service so we don't keep stale references...
+            if (service != null) {
+                service = null;
+                ungetService();
+            }
+            return this;
+        }
+
+        private void startRetention() {
+            try {
+                bundleContext.addServiceListener(this,
+                    String.format("(%s=%s)", org.osgi.framework.Constants.SERVICE_ID,
+                        reference.getProperty(org.osgi.framework.Constants.SERVICE_ID)));
+            } catch (InvalidSyntaxException e) {
+                LOGGER.error("Creation of filter failed: {}", e.getMessage(), e);
+                throw new RuntimeException("Creation of filter failed", e);
+            }
+            retained = true;
+            retain(this);
+            scheduleIdleTask(serviceRetention);
+        }
+
+        private void scheduleIdleTask(long delay) {
+            idleTask = new TimerTask() {
+                @Override
+                public void run() {
+                    releaseIdleService(this);
+                }
+            };
+            schedule(idleTask, delay);
+        }
+
+        private synchronized void releaseIdleService(TimerTask task) {
+            if (task != idleTask) {
+                // The service was released in the meantime
+                return;
+            }
+            if (users > 0) {
+                // a call is still using the service, it counts as used until it is released
+                scheduleIdleTask(serviceRetention);
+                return;
+            }
+            long idle = System.currentTimeMillis() - lastUsed;
+            if (idle < serviceRetention) {
+                scheduleIdleTask(serviceRetention - idle);
+            } else {
+                LOGGER.debug("Releasing service {} after being idle for {} ms", reference, idle);
+                releaseRetainedService();
+            }
+        }
+
+        public void serviceChanged(ServiceEvent event) {
+            if (event.getType() == ServiceEvent.UNREGISTERING) {
+                LOGGER.debug("Releasing retained service {} since it is unregistered", reference);
+                releaseRetainedService();
+            }
+        }
+
+        private synchronized void releaseRetainedService() {
+            if (!retained) {
+                return;
+            }
+            retained = false;
+            if (idleTask != null) {
+                idleTask.cancel();
+                idleTask = null;
+            }
+            unretain(this);
+            try {
+                bundleContext.removeServiceListener(this);
+            } catch (RuntimeException e) {
+                // The bundle context might be invalid already
+                LOGGER.trace("RuntimeException while removing service listener", e);
+            }
+            service = null;
+            ungetService();
+        }
+
+        private void ungetService() {
+            try {
+                bundleContext.ungetService(reference);
+            } catch (RuntimeException e) {
+                // Sometimes a RuntimeException might occur here, we catch it to not prevent any other
+                // cleanup actions
+                LOGGER.trace("RuntimeException while ungetting service", e);
+            }
         }
     }
 
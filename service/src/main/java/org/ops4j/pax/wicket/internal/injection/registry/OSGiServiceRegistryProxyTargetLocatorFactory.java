@@ -19,15 +19,45 @@ package org.ops4j.pax.wicket.internal.injection.registry;
 
 import java.lang.reflect.Field;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.ops4j.pax.wicket.api.PaxWicketBean;
 import org.ops4j.pax.wicket.spi.ProxyTargetLocator;
 import org.ops4j.pax.wicket.spi.ProxyTargetLocatorFactory;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class OSGiServiceRegistryProxyTargetLocatorFactory implements ProxyTargetLocatorFactory {
 
-    public OSGiServiceRegistryProxyTargetLocatorFactory() {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OSGiServiceRegistryProxyTargetLocatorFactory.class);
+
+    private final BundleContext bundleContext;
+
+    /**
+     * The tracked references per service filter, shared by all locators for the same service interface and name
+     */
+    private final ConcurrentMap<String, RankedServiceReferences> rankedReferences =
+        new ConcurrentHashMap<String, RankedServiceReferences>();
+
+    /**
+     * @param bundleContext the context used to track the services located by the created locators
+     */
+    public OSGiServiceRegistryProxyTargetLocatorFactory(BundleContext bundleContext) {
+        this.bundleContext = bundleContext;
+    }
+
+    /**
+     * Releases the services still retained by the located proxy targets and stops tracking services.
+     */
+    public void dispose() {
+        OSGiServiceRegistryProxyTargetLocator.releaseRetainedServices();
+        for (RankedServiceReferences references : rankedReferences.values()) {
+            references.close();
+        }
+        rankedReferences.clear();
     }
 
     public String getName() {
@@ -36,14 +66,43 @@ public class OSGiServiceRegistryProxyTargetLocatorFactory implements ProxyTarget
 
     public ProxyTargetLocator createProxyTargetLocator(BundleContext context, Field field, Class<?> page,
             Map<String, String> overwrites) {
+        PaxWicketBean annotation = field.getAnnotation(PaxWicketBean.class);
+        RankedServiceReferences references =
+            getRankedReferences(OSGiServiceRegistryProxyTargetLocator.getServiceFilter(field.getType().getName(),
+                annotation.name()));
         OSGiServiceRegistryProxyTargetLocator locator =
-            new OSGiServiceRegistryProxyTargetLocator(context, field.getAnnotation(PaxWicketBean.class),
-                field.getType(), page);
-        if (locator.fetchReferences() != null) {
+            new OSGiServiceRegistryProxyTargetLocator(context, annotation, field.getType(), page, references);
+        boolean available;
+        if (references != null && references.isOpen()) {
+            available = references.getReferences() != null;
+        } else {
+            available = locator.fetchReferences() != null;
+        }
+        if (available) {
             return locator;
         } else {
             return null;
         }
     }
 
+    private RankedServiceReferences getRankedReferences(String filter) {
+        RankedServiceReferences references = rankedReferences.get(filter);
+        if (references != null) {
+            return references;
+        }
+        try {
+            references = new RankedServiceReferences(bundleContext, filter);
+        } catch (InvalidSyntaxException e) {
+            // The component name is not escaped, so we can't track the service but still query it
+            LOGGER.debug("Can't track services matching {}: {}", filter, e.getMessage());
+            return null;
+        }
+        RankedServiceReferences existing = rankedReferences.putIfAbsent(filter, references);
+        if (existing != null) {
+            return existing;
+        }
+        references.open();
+        return references;
+    }
+
 }
@@ -0,0 +1,98 @@
+/*
+ * Copyright OPS4J
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.injection.registry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+import org.osgi.util.tracker.ServiceTracker;
+import org.osgi.util.tracker.ServiceTrackerCustomizer;
+
+/**
+ * Keeps the sorted references of all services matching a filter up to date by tracking them, so that locating a
+ * service does not have to query the service registry. The tracker does not get the services itself, this is still
+ * done by the bundle context of the locating bundle.
+ */
+final class RankedServiceReferences implements ServiceTrackerCustomizer<Object, ServiceReference<?>> {
+
+    private final ServiceTracker<Object, ServiceReference<?>> tracker;
+
+    /**
+     * The current references in the order of {@link ServiceReference#compareTo(Object)}, replaced but never modified
+     * on service events
+     */
+    private volatile ServiceReference<?>[] references = new ServiceReference<?>[0];
+
+    private volatile boolean open;
+
+    RankedServiceReferences(BundleContext context, String filter) throws InvalidSyntaxException {
+        tracker = new ServiceTracker<Object, ServiceReference<?>>(context, context.createFilter(filter), this);
+    }
+
+    void open() {
+        tracker.open(true);
+        open = true;
+    }
+
+    void close() {
+        open = false;
+        tracker.close();
+    }
+
+    boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * @return the sorted references of the matching services or <code>null</code> if there are none; the returned
+     *         array is shared and must not be modified
+     */
+    ServiceReference<?>[] getReferences() {
+        ServiceReference<?>[] current = references;
+        return current.length == 0 ? null : current;
+    }
+
+    public ServiceReference<?> addingService(ServiceReference<Object> reference) {
+        update(reference, true);
+        return reference;
+    }
+
+    public void modifiedService(ServiceReference<Object> reference, ServiceReference<?> service) {
+        // The ranking might have changed
+        update(reference, true);
+    }
+
+    public void removedService(ServiceReference<Object> reference, ServiceReference<?> service) {
+        update(reference, false);
+    }
+
+    private synchronized void update(ServiceReference<?> reference, boolean present) {
+        List<ServiceReference<?>> updated = new ArrayList<ServiceReference<?>>(Arrays.asList(references));
+        updated.remove(reference);
+        if (present) {
+            updated.add(reference);
+        }
+        ServiceReference<?>[] sorted = updated.toArray(new ServiceReference<?>[updated.size()]);
+        Arrays.sort(sorted);
+        references = sorted;
+    }
+}
@@ -48,7 +48,7 @@ public class BundleTrackerAggregator<ServiceType> extends ServiceTracker<Service
     @Override
     public void modifiedService(ServiceReference<ServiceType> reference, ServiceType service) {
         for (ServiceTrackerAggregatorReadyChildren<ServiceType> child : children) {
-            child.addingService(reference, service);
+            child.modifiedService(reference, service);
         }
         super.modifiedService(reference, service);
     }
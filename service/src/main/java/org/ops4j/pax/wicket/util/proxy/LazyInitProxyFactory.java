@@ -18,16 +18,23 @@ package org.ops4j.pax.wicket.util.proxy;
 import java.io.InvalidClassException;
 import java.io.ObjectStreamException;
 import java.io.Serializable;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import net.sf.cglib.core.DefaultNamingPolicy;
+import net.sf.cglib.core.NamingPolicy;
 import net.sf.cglib.core.Predicate;
+import net.sf.cglib.proxy.Callback;
+import net.sf.cglib.proxy.CallbackFilter;
 import net.sf.cglib.proxy.Enhancer;
+import net.sf.cglib.proxy.Factory;
 import net.sf.cglib.proxy.MethodInterceptor;
 import net.sf.cglib.proxy.MethodProxy;
 
@@ -47,6 +54,44 @@ public class LazyInitProxyFactory {
              Float.class, Double.class, Character.class,
              Boolean.class });
 
+    private static final NamingPolicy WICKET_NAMING_POLICY = new DefaultNamingPolicy() {
+        @Override
+        public String getClassName(final String prefix, final String source,
+                                   final Object key, final Predicate names) {
+            return super.getClassName("WICKET_" + prefix, source, key, names);
+        }
+    };
+
+    /**
+     * Already generated proxy classes, keyed by their superclass. The generated class is defined by the class loader of
+     * the superclass, so the superclass identifies the proxy class and the class loader keeps it alive as long as the
+     * superclass. New proxies are instantiated with {@link Enhancer#registerCallbacks(Class, Callback[])} instead of
+     * running the {@link Enhancer} again. The proxy class is weakly referenced as it references the superclass.
+     */
+    private static final Map<Class<?>, WeakReference<Class<?>>> PROXY_CLASSES =
+        new WeakHashMap<Class<?>, WeakReference<Class<?>>>();
+
+    private static final int TARGET_METHOD_CALLBACK = 0;
+
+    private static final int PROXY_METHOD_CALLBACK = 1;
+
+    /**
+     * Decides once per method of a generated proxy class whether calls are delegated to the target or answered by the
+     * proxy itself, so that the interceptors do not have to inspect the method on every call.
+     */
+    private static final CallbackFilter PROXY_CALLBACK_FILTER = new CallbackFilter() {
+        public int accept(Method method) {
+            if (isFinalizeMethod(method) || isEqualsMethod(method) || isHashCodeMethod(method)
+                    || isToStringMethod(method) || isWriteReplaceMethod(method)
+                    || method.getDeclaringClass().equals(ILazyInitProxy.class)) {
+                return PROXY_METHOD_CALLBACK;
+            }
+            return TARGET_METHOD_CALLBACK;
+        }
+    };
+
+    private static final MethodInterceptor PROXY_METHOD_INTERCEPTOR = new ProxyMethodInterceptor();
+
     public static Object createProxy(final Class<?> type, final ProxyTargetLocator locator) {
         if (type.isPrimitive() || BUILTINS.contains(type) || Enum.class.isAssignableFrom(type)) {
             // We special-case primitives as sometimes people use these as
@@ -63,8 +108,8 @@ public class LazyInitProxyFactory {
 
             try {
                 return Proxy.newProxyInstance(Thread.currentThread().getContextClassLoader(),
-                        new Class[]{ type, Serializable.class, ILazyInitProxy.class,
-                                IWriteReplace.class }, handler);
+                        new Class[]{ IWriteReplace.class, ILazyInitProxy.class, type,
+                                Serializable.class }, handler);
             } catch (IllegalArgumentException e) {
                 // While in the original Wicket Environment this is a failure of the context-classloader in PAX-WICKET
                 // this is always an error of missing imports into the classloader. Right now we can do nothing here but
@@ -76,21 +121,42 @@ public class LazyInitProxyFactory {
 
         } else {
             CGLibInterceptor handler = new CGLibInterceptor(type, locator);
+            Callback[] callbacks = new Callback[]{ handler, PROXY_METHOD_INTERCEPTOR };
 
-            Enhancer e = new Enhancer();
-            e.setInterfaces(new Class[]{ Serializable.class, ILazyInitProxy.class,
-                    IWriteReplace.class });
-            e.setSuperclass(type);
-            e.setCallback(handler);
-            e.setNamingPolicy(new DefaultNamingPolicy() {
-                @Override
-                public String getClassName(final String prefix, final String source,
-                                           final Object key, final Predicate names) {
-                    return super.getClassName("WICKET_" + prefix, source, key, names);
-                }
-            });
+            Class<?> proxyClass = getProxyClass(type);
+            Enhancer.registerCallbacks(proxyClass, callbacks);
+            try {
+                return proxyClass.getConstructor().newInstance();
+            } catch (InvocationTargetException e) {
+                throw new IllegalStateException("Unable to create proxy for " + type.getName(), e.getCause());
+            } catch (NoSuchMethodException e) {
+                throw new IllegalStateException("Unable to create proxy for " + type.getName(), e);
+            } catch (InstantiationException e) {
+                throw new IllegalStateException("Unable to create proxy for " + type.getName(), e);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Unable to create proxy for " + type.getName(), e);
+            } finally {
+                Enhancer.registerCallbacks(proxyClass, null);
+            }
+        }
+    }
 
-            return e.create();
+    private static Class<?> getProxyClass(Class<?> type) {
+        synchronized (PROXY_CLASSES) {
+            WeakReference<Class<?>> reference = PROXY_CLASSES.get(type);
+            Class<?> proxyClass = reference != null ? reference.get() : null;
+            if (proxyClass == null) {
+                Enhancer e = new Enhancer();
+                e.setInterfaces(new Class[]{ Serializable.class, ILazyInitProxy.class,
+                        IWriteReplace.class });
+                e.setSuperclass(type);
+                e.setCallbackFilter(PROXY_CALLBACK_FILTER);
+                e.setCallbackTypes(new Class[]{ CGLibInterceptor.class, ProxyMethodInterceptor.class });
+                e.setNamingPolicy(WICKET_NAMING_POLICY);
+                proxyClass = e.createClass();
+                PROXY_CLASSES.put(type, new WeakReference<Class<?>>(proxyClass));
+            }
+            return proxyClass;
         }
     }
 
@@ -149,7 +215,11 @@ public class LazyInitProxyFactory {
 
         private final String typeName;
 
-        private transient Object target;
+        /**
+         * The last located target, shared proxies are used by several threads at once so every call works on the
+         * target it read from this field
+         */
+        private transient volatile Object target;
 
         public CGLibInterceptor(Class<?> type, ProxyTargetLocator locator) {
             super();
@@ -157,31 +227,23 @@ public class LazyInitProxyFactory {
             this.locator = locator;
         }
 
+        /**
+         * Only called for methods of the target; the methods of {@link Object} and of the proxy interfaces are routed
+         * to the {@link ProxyMethodInterceptor} by the {@link #PROXY_CALLBACK_FILTER}.
+         */
         public Object intercept(Object object, Method method, Object[] args, MethodProxy proxy)
                 throws Throwable {
-            if (isFinalizeMethod(method)) {
-                // swallow finalize call
-                return null;
-            } else if (isEqualsMethod(method)) {
-                return equals(args[0]) ? Boolean.TRUE : Boolean.FALSE;
-            } else if (isHashCodeMethod(method)) {
-                return new Integer(hashCode());
-            } else if (isToStringMethod(method)) {
-                return toString();
-            } else if (isWriteReplaceMethod(method)) {
-                return writeReplace();
-            } else if (method.getDeclaringClass().equals(ILazyInitProxy.class)) {
-                return getObjectLocator();
-            }
-            if (target == null) {
-                target = locator.locateProxyTarget();
+            Object currentTarget = target;
+            if (currentTarget == null) {
+                currentTarget = locator.locateProxyTarget();
+                target = currentTarget;
             }
             Object invoke;
             try {
-                invoke = proxy.invoke(getRealTarget(target), args);
+                invoke = proxy.invoke(getRealTarget(currentTarget), args);
             } finally {
-                if (target instanceof ReleasableProxyTarget) {
-                    target = ((ReleasableProxyTarget) target).releaseTarget();
+                if (currentTarget instanceof ReleasableProxyTarget) {
+                    target = ((ReleasableProxyTarget) currentTarget).releaseTarget();
                 }
             }
             return invoke;
@@ -196,6 +258,31 @@ public class LazyInitProxyFactory {
         }
     }
 
+    /**
+     * Answers the methods of {@link Object} and of the proxy interfaces for class based proxies on behalf of the
+     * {@link CGLibInterceptor} of the proxy. Stateless and therefore shared by all proxies.
+     */
+    private static class ProxyMethodInterceptor implements MethodInterceptor {
+
+        public Object intercept(Object object, Method method, Object[] args, MethodProxy proxy)
+                throws Throwable {
+            CGLibInterceptor handler = (CGLibInterceptor) ((Factory) object).getCallback(TARGET_METHOD_CALLBACK);
+            if (isFinalizeMethod(method)) {
+                // swallow finalize call
+                return null;
+            } else if (isEqualsMethod(method)) {
+                return handler.equals(args[0]) ? Boolean.TRUE : Boolean.FALSE;
+            } else if (isHashCodeMethod(method)) {
+                return Integer.valueOf(handler.hashCode());
+            } else if (isToStringMethod(method)) {
+                return handler.toString();
+            } else if (isWriteReplaceMethod(method)) {
+                return handler.writeReplace();
+            }
+            return handler.getObjectLocator();
+        }
+    }
+
     /**
      * Invocation handler for proxies representing interface based object. For interface backed objects dynamic jdk
      * proxies are used.
@@ -214,7 +301,11 @@ public class LazyInitProxyFactory {
 
         private final String typeName;
 
-        private transient Object target;
+        /**
+         * The last located target, shared proxies are used by several threads at once so every call works on the
+         * target it read from this field
+         */
+        private transient volatile Object target;
 
         /**
          * Constructor
@@ -228,32 +319,40 @@ public class LazyInitProxyFactory {
             typeName = type.getName();
         }
 
+        /**
+         * Dispatches on the declaring class of the method only. The proxy class hands in the {@link Object} methods
+         * equals, hashCode and toString with {@link Object} as declaring class, and since the proxy interfaces are
+         * listed before the proxied type, methods duplicated by the proxied type arrive with the proxy interface as
+         * declaring class.
+         */
         public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-            if (isFinalizeMethod(method)) {
-                // swallow finalize call
-                return null;
-            } else if (isEqualsMethod(method)) {
-                return equals(args[0]) ? Boolean.TRUE : Boolean.FALSE;
-            } else if (isHashCodeMethod(method)) {
-                return new Integer(hashCode());
-            } else if (isToStringMethod(method)) {
+            Class<?> declaringClass = method.getDeclaringClass();
+            if (declaringClass == Object.class) {
+                String name = method.getName();
+                if ("equals".equals(name)) {
+                    return equals(args[0]) ? Boolean.TRUE : Boolean.FALSE;
+                } else if ("hashCode".equals(name)) {
+                    return Integer.valueOf(hashCode());
+                }
                 return toString();
-            } else if (method.getDeclaringClass().equals(ILazyInitProxy.class)) {
+            } else if (declaringClass == ILazyInitProxy.class) {
                 return getObjectLocator();
-            } else if (isWriteReplaceMethod(method)) {
+            } else if (declaringClass == IWriteReplace.class) {
                 return writeReplace();
             }
 
-            if (target == null) {
-                target = locator.locateProxyTarget();
+            Object currentTarget = target;
+            if (currentTarget == null) {
+                currentTarget = locator.locateProxyTarget();
+                target = currentTarget;
             }
             try {
                 Object invoke;
                 try {
-                    invoke = method.invoke(getRealTarget(target), args);
+                    invoke = method.invoke(getRealTarget(currentTarget), args);
                 } finally {
-                    if (target instanceof ReleasableProxyTarget) {
-                        target = ((ReleasableProxyTarget) target).releaseTarget();
+                    if (currentTarget instanceof ReleasableProxyTarget) {
+                        target = ((ReleasableProxyTarget) currentTarget).releaseTarget();
                     }
                 }
                 return invoke;
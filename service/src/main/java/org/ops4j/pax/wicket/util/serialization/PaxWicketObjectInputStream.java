@@ -17,8 +17,10 @@ package org.ops4j.pax.wicket.util.serialization;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InvalidClassException;
 import java.io.ObjectInputStream;
 import java.io.ObjectStreamClass;
+import java.lang.reflect.Array;
 
 import org.apache.wicket.WicketRuntimeException;
 import org.apache.wicket.application.IClassResolver;
@@ -30,11 +32,24 @@ import org.apache.wicket.application.IClassResolver;
 public final class PaxWicketObjectInputStream extends ObjectInputStream {
 
     private final IClassResolver classResolver;
+    private final boolean compactClassDescriptors;
 
     public PaxWicketObjectInputStream(InputStream inputStream, IClassResolver resolver) throws IOException {
+        this(inputStream, resolver, false);
+    }
+
+    /**
+     * @param inputStream the stream to read from
+     * @param resolver the resolver used to load the classes of the stream
+     * @param compactClassDescriptors if {@code true} the stream has been written by a
+     *        {@link PaxWicketObjectOutputStream} with compact class descriptors
+     */
+    public PaxWicketObjectInputStream(InputStream inputStream, IClassResolver resolver,
+            boolean compactClassDescriptors) throws IOException {
         super(inputStream);
 
         classResolver = resolver;
+        this.compactClassDescriptors = compactClassDescriptors;
         enableResolveObject(true);
     }
 
@@ -51,9 +66,38 @@ public final class PaxWicketObjectInputStream extends ObjectInputStream {
         }
     }
 
+    @Override
+    protected final ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+        if (!compactClassDescriptors) {
+            return super.readClassDescriptor();
+        }
+        String className = readUTF();
+        long serialVersionUID = readLong();
+        int fieldLayoutHash = readInt();
+        ObjectStreamClass localClassDescriptor = ObjectStreamClass.lookup(resolveClass(className));
+        if (localClassDescriptor == null) {
+            throw new InvalidClassException(className, "class is not serializable");
+        }
+        if (localClassDescriptor.getSerialVersionUID() != serialVersionUID) {
+            throw new InvalidClassException(className, "local class incompatible: stream classdesc serialVersionUID = "
+                    + serialVersionUID + ", local class serialVersionUID = "
+                    + localClassDescriptor.getSerialVersionUID());
+        }
+        if (PaxWicketObjectOutputStream.getFieldLayoutHash(localClassDescriptor) != fieldLayoutHash) {
+            throw new InvalidClassException(className, "local class incompatible: fields changed since the stream "
+                    + "was written");
+        }
+        return localClassDescriptor;
+    }
+
     @Override
     protected final Class<?> resolveClass(ObjectStreamClass objectStreamClass) throws IOException,
         ClassNotFoundException {
+        Class<?> localClass = objectStreamClass.forClass();
+        if (localClass != null) {
+            // compact class descriptors are already resolved
+            return localClass;
+        }
         String className = objectStreamClass.getName();
 
         Class<?> candidate = resolveClassByClassResolver(className);
@@ -64,6 +108,23 @@ public final class PaxWicketObjectInputStream extends ObjectInputStream {
         return super.resolveClass(objectStreamClass);
     }
 
+    private Class<?> resolveClass(String className) throws ClassNotFoundException {
+        if (className.startsWith("[")) {
+            int dimensions = className.lastIndexOf('[') + 1;
+            if (className.charAt(dimensions) != 'L') {
+                // array of primitives
+                return Class.forName(className);
+            }
+            Class<?> componentClass = resolveClass(className.substring(dimensions + 1, className.length() - 1));
+            return Array.newInstance(componentClass, new int[dimensions]).getClass();
+        }
+        Class<?> candidate = resolveClassByClassResolver(className);
+        if (candidate != null) {
+            return candidate;
+        }
+        return Class.forName(className, false, PaxWicketObjectInputStream.class.getClassLoader());
+    }
+
     private Class<?> resolveClassByClassResolver(String className) {
         Class<?> resolvedClass = null;
 
@@ -20,95 +20,126 @@ import static org.ops4j.lang.NullArgumentException.validateNotNull;
 import java.io.IOException;
 import java.io.NotSerializableException;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
 import java.io.OutputStream;
 
 import org.apache.wicket.core.util.objects.checker.CheckingObjectOutputStream;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
+ * An {@link ObjectOutputStream} replacing {@link Bundle} and {@link BundleContext} instances by serializable references
+ * while writing. Use {@link #explainNotSerializable(Object, NotSerializableException)} to find out where in the object
+ * graph an object that can not be serialized is located.
+ * 
  * @author edward.yakop@gmail.com
  * @since 0.5.4
  */
 public class PaxWicketObjectOutputStream extends ObjectOutputStream {
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(PaxWicketObjectOutputStream.class);
-    protected final ObjectOutputStream outputStream;
+    private final boolean compactClassDescriptors;
 
     public PaxWicketObjectOutputStream(OutputStream outputStream) throws IOException {
-        validateNotNull(outputStream, "outputStream");
-        this.outputStream = new OSGiAwareOutputStream(outputStream);
+        this(outputStream, false);
     }
 
-    @Override
-    protected void writeObjectOverride(final Object object) throws IOException {
-        try {
-            outputStream.writeObject(object);
-        } catch (IOException e) {
-            if (CheckingObjectOutputStream.isAvailable()) {
-                // trigger serialization again, but this time gather some more info
-                new PaxWicketSerializableChecker((NotSerializableException) e) {
-                    @Override
-                    protected boolean validateAdditionalSerializableConditions(Object obj) {
-                        return !(obj instanceof BundleContext) && !(obj instanceof Bundle);
-                    }
-
-                    @Override
-                    protected Object additionalObjectReplacements(Object streamObj) {
-                        if (streamObj instanceof BundleContext) {
-                            BundleContext context = (BundleContext) streamObj;
-                            streamObj = new ReplaceBundleContext(context);
-                        } else if (streamObj instanceof Bundle) {
-                            Bundle bundle = (Bundle) streamObj;
-                            streamObj = new ReplaceBundle(bundle);
-                        }
-                        return streamObj;
-                    }
-                }.writeObject(object);
-                // if we get here, we didn't fail, while we should;
-                throw e;
-            }
+    /**
+     * @param outputStream the stream to write to
+     * @param compactClassDescriptors if {@code true} class descriptors are written as class name, serial version UID
+     *        and a hash of the field layout only, such a stream can only be read by a
+     *        {@link PaxWicketObjectInputStream} created with the same flag and the same class versions
+     */
+    public PaxWicketObjectOutputStream(OutputStream outputStream, boolean compactClassDescriptors) throws IOException {
+        super(validateOutputStream(outputStream));
+        this.compactClassDescriptors = compactClassDescriptors;
+        enableReplaceObject(true);
+    }
 
-            throw e;
-        } catch (RuntimeException e) {
-            LOGGER.error("error writing object " + object + ": " + e.getMessage(), e);
-            throw e;
-        }
+    private static OutputStream validateOutputStream(OutputStream outputStream) {
+        validateNotNull(outputStream, "outputStream");
+        return outputStream;
     }
 
     @Override
-    public final void flush() throws IOException {
-        outputStream.flush();
+    protected Object replaceObject(Object object)
+        throws IOException {
+        if (object instanceof BundleContext) {
+            BundleContext context = (BundleContext) object;
+            return new ReplaceBundleContext(context);
+        } else if (object instanceof Bundle) {
+            Bundle bundle = (Bundle) object;
+            return new ReplaceBundle(bundle);
+        } else {
+            return super.replaceObject(object);
+        }
     }
 
     @Override
-    public final void close() throws IOException {
-        outputStream.close();
+    protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+        if (compactClassDescriptors) {
+            // the field layout is taken from the local class when reading
+            writeUTF(desc.getName());
+            writeLong(desc.getSerialVersionUID());
+            writeInt(getFieldLayoutHash(desc));
+        } else {
+            super.writeClassDescriptor(desc);
+        }
     }
 
-    private static final class OSGiAwareOutputStream extends ObjectOutputStream {
+    /**
+     * Hashes the names and types of the serializable fields, so that a compact class descriptor detects a class that
+     * changed its fields but kept an explicit serial version UID.
+     */
+    static int getFieldLayoutHash(ObjectStreamClass desc) {
+        int hash = 1;
+        for (ObjectStreamField field : desc.getFields()) {
+            hash = 31 * hash + field.getName().hashCode();
+            String typeString = field.getTypeString();
+            hash = 31 * hash + (typeString != null ? typeString.hashCode() : field.getTypeCode());
+        }
+        return hash;
+    }
 
-        private OSGiAwareOutputStream(OutputStream outputStream)
-            throws IOException {
-            super(outputStream);
-            enableReplaceObject(true);
+    /**
+     * Serializes the object again, this time gathering the path to the object that could not be serialized.
+     * 
+     * @param object the object that failed to serialize
+     * @param exception the exception thrown while serializing it
+     * 
+     * @return the exception describing the path to the object, or the given exception if there is no better
+     *         explanation
+     */
+    public static Exception explainNotSerializable(Object object, NotSerializableException exception) {
+        if (!CheckingObjectOutputStream.isAvailable()) {
+            return exception;
         }
+        try {
+            new PaxWicketSerializableChecker(exception) {
+                @Override
+                protected boolean validateAdditionalSerializableConditions(Object obj) {
+                    return !(obj instanceof BundleContext) && !(obj instanceof Bundle);
+                }
 
-        @Override
-        protected Object replaceObject(Object object)
-            throws IOException {
-            if (object instanceof BundleContext) {
-                BundleContext context = (BundleContext) object;
-                return new ReplaceBundleContext(context);
-            } else if (object instanceof Bundle) {
-                Bundle bundle = (Bundle) object;
-                return new ReplaceBundle(bundle);
-            } else {
-                return super.replaceObject(object);
-            }
+                @Override
+                protected Object additionalObjectReplacements(Object streamObj) {
+                    if (streamObj instanceof BundleContext) {
+                        BundleContext context = (BundleContext) streamObj;
+                        streamObj = new ReplaceBundleContext(context);
+                    } else if (streamObj instanceof Bundle) {
+                        Bundle bundle = (Bundle) streamObj;
+                        streamObj = new ReplaceBundle(bundle);
+                    }
+                    return streamObj;
+                }
+            }.writeObject(object);
+        } catch (IOException e) {
+            return exception;
+        } catch (RuntimeException e) {
+            return e;
         }
+        // if we get here, we didn't fail, while we should
+        return exception;
     }
 
 }
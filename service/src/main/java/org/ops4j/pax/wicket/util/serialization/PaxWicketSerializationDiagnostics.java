@@ -0,0 +1,120 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.util.serialization;
+
+import java.io.NotSerializableException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.ops4j.pax.wicket.api.Constants;
+import org.osgi.framework.BundleContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Explains serialization failures by running the {@link PaxWicketSerializableChecker}, which serializes the whole object
+ * graph once more. The explanation is remembered per class of the serialized object and the checker runs at most once
+ * per check interval for a class, so a page failing on every request only costs a lookup. The checker always runs on
+ * the thread that failed to serialize the object, as the object graph may be changed by other threads once the
+ * request is finished.
+ */
+public class PaxWicketSerializationDiagnostics {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PaxWicketSerializationDiagnostics.class);
+
+    private static final long DEFAULT_CHECK_INTERVAL = 60000;
+
+    private final long checkInterval;
+
+    private final Map<Class<?>, Explanation> explanations =
+        Collections.synchronizedMap(new WeakHashMap<Class<?>, Explanation>());
+
+    private volatile boolean disposed;
+
+    /**
+     * @param checkInterval the minimum number of milliseconds between two checks of the same class, {@code 0} checks
+     *        every failure
+     */
+    public PaxWicketSerializationDiagnostics(long checkInterval) {
+        this.checkInterval = checkInterval;
+    }
+
+    /**
+     * Creates the diagnostics configured by the framework property {@link Constants#SERIALIZATION_CHECK_INTERVAL}.
+     */
+    public static PaxWicketSerializationDiagnostics create(BundleContext context) {
+        long checkInterval = DEFAULT_CHECK_INTERVAL;
+        String interval = context.getProperty(Constants.SERIALIZATION_CHECK_INTERVAL);
+        if (interval != null) {
+            try {
+                checkInterval = Math.max(0, Long.parseLong(interval.trim()));
+            } catch (NumberFormatException e) {
+                LOGGER.warn("Ignoring invalid value {} of property {}", interval,
+                    Constants.SERIALIZATION_CHECK_INTERVAL);
+            }
+        }
+        return new PaxWicketSerializationDiagnostics(checkInterval);
+    }
+
+    /**
+     * @param object the object that failed to serialize
+     * @param exception the exception thrown while serializing it
+     * 
+     * @return the best known explanation of the failure
+     */
+    public Exception explain(Object object, NotSerializableException exception) {
+        if (disposed) {
+            // the application is gone, do not remember classes any more
+            return exception;
+        }
+        Class<?> type = object.getClass();
+        long now = System.currentTimeMillis();
+        synchronized (explanations) {
+            Explanation known = explanations.get(type);
+            if (known != null && now - known.checked < checkInterval) {
+                return known.exception != null ? known.exception : exception;
+            }
+            // claim the check, concurrent failures use the known explanation meanwhile
+            explanations.put(type, new Explanation(now, known != null ? known.exception : null));
+        }
+        Exception explanation = PaxWicketObjectOutputStream.explainNotSerializable(object, exception);
+        if (!disposed) {
+            explanations.put(type, new Explanation(now, explanation));
+        }
+        return explanation;
+    }
+
+    /**
+     * Forgets the known explanations, later failures are no longer explained
+     */
+    public void dispose() {
+        disposed = true;
+        explanations.clear();
+    }
+
+    private static final class Explanation {
+
+        private final long checked;
+
+        private final Exception exception;
+
+        private Explanation(long checked, Exception exception) {
+            this.checked = checked;
+            this.exception = exception;
+        }
+    }
+}
@@ -5,26 +5,155 @@ import org.apache.wicket.application.IClassResolver;
 import org.apache.wicket.protocol.http.WebApplication;
 import org.apache.wicket.serialize.java.JavaSerializer;
 import org.apache.wicket.settings.IApplicationSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 /**
  * A simple wrapper for the original wicket serializer making it possible to serialize class which inject osgi
  * bundle based classes.
+ * <p>
+ * Besides plain java serialization the serializer can write a compact format, selected by the framework property
+ * {@link org.ops4j.pax.wicket.api.Constants#SERIALIZATION_FORMAT}. It starts with a header holding a magic number, the
+ * format version and flags, followed by a java serialization stream with class descriptors reduced to class name,
+ * serial version UID and a hash of the field layout, optionally deflated. Reading detects the format by the header, so data written in any format
+ * stays readable if the configuration changes.
+ * </p>
  */
 public class PaxWicketSerializer extends JavaSerializer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PaxWicketSerializer.class);
+
+    /**
+     * Plain java serialization
+     */
+    public static final String FORMAT_JAVA = "java";
+    /**
+     * Compact class descriptors
+     */
+    public static final String FORMAT_COMPACT = "compact";
+    /**
+     * Compact class descriptors, deflated with the fastest compression level
+     */
+    public static final String FORMAT_COMPACT_DEFLATE = "compact-deflate";
+
+    private static final int MAGIC_1 = 'P';
+    private static final int MAGIC_2 = 'W';
+    private static final int VERSION = 2;
+    private static final int FLAG_COMPACT = 1;
+    private static final int FLAG_DEFLATE = 2;
+
+    private final String applicationKey;
+    private final int flags;
+    private final PaxWicketSerializationDiagnostics diagnostics;
+
     public PaxWicketSerializer(String applicationKey) {
+        this(applicationKey, FORMAT_JAVA);
+    }
+
+    public PaxWicketSerializer(String applicationKey, String format) {
+        this(applicationKey, format, new PaxWicketSerializationDiagnostics(0));
+    }
+
+    /**
+     * @param applicationKey the key of the application
+     * @param format one of {@link #FORMAT_JAVA}, {@link #FORMAT_COMPACT} or {@link #FORMAT_COMPACT_DEFLATE}, plain
+     *        java serialization is used for {@code null} or unknown formats
+     * @param diagnostics explains objects that could not be serialized
+     */
+    public PaxWicketSerializer(String applicationKey, String format, PaxWicketSerializationDiagnostics diagnostics) {
         super(applicationKey);
+        this.applicationKey = applicationKey;
+        this.diagnostics = diagnostics;
+        if (format == null || FORMAT_JAVA.equals(format)) {
+            flags = 0;
+        } else if (FORMAT_COMPACT.equals(format)) {
+            flags = FLAG_COMPACT;
+        } else if (FORMAT_COMPACT_DEFLATE.equals(format)) {
+            flags = FLAG_COMPACT | FLAG_DEFLATE;
+        } else {
+            LOGGER.warn("Ignoring unknown serialization format {}", format);
+            flags = 0;
+        }
+    }
+
+    /**
+     * Writes like {@link JavaSerializer#serialize(Object)}, but explains the path to objects that can not be serialized
+     * only after serialization failed instead of wrapping every stream.
+     */
+    @Override
+    public byte[] serialize(Object object) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ObjectOutputStream oos = newObjectOutputStream(out);
+            try {
+                oos.writeObject(applicationKey);
+                oos.writeObject(object);
+            } finally {
+                oos.close();
+            }
+            return out.toByteArray();
+        } catch (NotSerializableException e) {
+            logSerializationError(object, diagnostics.explain(object, e));
+        } catch (Exception e) {
+            logSerializationError(object, e);
+        }
+        return null;
+    }
+
+    private static void logSerializationError(Object object, Exception e) {
+        LOGGER.error("Error serializing object " + object.getClass() + " [object=" + object + "]", e);
     }
 
     @Override
     protected ObjectInputStream newObjectInputStream(InputStream in) throws IOException {
-        return new PaxWicketObjectInputStream(in, getClassResolver());
+        return newObjectInputStream(in, getClassResolver());
     }
 
     @Override
     protected ObjectOutputStream newObjectOutputStream(OutputStream out) throws IOException {
-        return new PaxWicketObjectOutputStream(out);
+        if (flags == 0) {
+            return new PaxWicketObjectOutputStream(out);
+        }
+        out.write(MAGIC_1);
+        out.write(MAGIC_2);
+        out.write(VERSION);
+        out.write(flags);
+        if ((flags & FLAG_DEFLATE) != 0) {
+            out = new FastDeflaterOutputStream(out);
+        }
+        return new PaxWicketObjectOutputStream(out, (flags & FLAG_COMPACT) != 0);
+    }
+
+    /**
+     * Creates the stream for data written in any of the formats, java serialization streams never start with the
+     * magic number of the header.
+     */
+    static ObjectInputStream newObjectInputStream(InputStream in, IClassResolver classResolver) throws IOException {
+        if (!in.markSupported()) {
+            in = new BufferedInputStream(in);
+        }
+        in.mark(2);
+        if (in.read() != MAGIC_1 || in.read() != MAGIC_2) {
+            in.reset();
+            return new PaxWicketObjectInputStream(in, classResolver);
+        }
+        int version = in.read();
+        if (version != VERSION) {
+            throw new StreamCorruptedException("Unsupported serialization format version " + version);
+        }
+        int streamFlags = in.read();
+        if (streamFlags < 0) {
+            throw new EOFException();
+        }
+        if ((streamFlags & FLAG_DEFLATE) != 0) {
+            in = new InflaterInputStream(in);
+        }
+        return new PaxWicketObjectInputStream(in, classResolver, (streamFlags & FLAG_COMPACT) != 0);
     }
 
     private IClassResolver getClassResolver() {
@@ -32,4 +161,23 @@ public class PaxWicketSerializer extends JavaSerializer {
         IApplicationSettings appSettings = application.getApplicationSettings();
         return appSettings.getClassResolver();
     }
+
+    /**
+     * Deflates with the fastest level and releases the native deflater on close
+     */
+    private static final class FastDeflaterOutputStream extends DeflaterOutputStream {
+
+        private FastDeflaterOutputStream(OutputStream out) {
+            super(out, new Deflater(Deflater.BEST_SPEED));
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                def.end();
+            }
+        }
+    }
 }
@@ -0,0 +1,172 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.HashSet;
+import java.util.Iterator;
+
+import org.apache.wicket.application.IClassResolver;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.ops4j.pax.wicket.internal.extender.ExtendedBundle;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+
+public class BundleDelegatingClassResolverTest {
+
+    private BundleDelegatingClassResolver resolver;
+    private Bundle owningBundle;
+    private Bundle otherBundle;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception {
+        BundleContext bundleContext = mock(BundleContext.class);
+        when(bundleContext.registerService(any(Class.class), any(IClassResolver.class), any(Dictionary.class)))
+            .thenReturn(mock(ServiceRegistration.class));
+        resolver = new BundleDelegatingClassResolver(bundleContext, "test");
+        resolver.start();
+
+        owningBundle = mock(Bundle.class);
+        when(owningBundle.getSymbolicName()).thenReturn("owning");
+        when(owningBundle.loadClass(anyString())).thenThrow(new ClassNotFoundException());
+        doReturn(String.class).when(owningBundle).loadClass(String.class.getName());
+        otherBundle = mock(Bundle.class);
+        when(otherBundle.getSymbolicName()).thenReturn("other");
+        when(otherBundle.loadClass(anyString())).thenThrow(new ClassNotFoundException());
+
+        resolver.addBundle(extend(owningBundle));
+        resolver.addBundle(extend(otherBundle));
+    }
+
+    @Test
+    public void testResolveClass_shouldRememberTheOwningBundle() throws Exception {
+        assertSame(String.class, resolver.resolveClass(String.class.getName()));
+        assertSame(String.class, resolver.resolveClass(String.class.getName()));
+
+        verify(owningBundle, times(2)).loadClass(String.class.getName());
+        verify(otherBundle, times(1)).loadClass(String.class.getName());
+    }
+
+    @Test
+    public void testResolveClass_shouldRememberUnresolvableClassesUntilABundleIsAdded() throws Exception {
+        String missing = "org.example.Missing";
+        assertNotResolvable(missing);
+        assertNotResolvable(missing);
+        verify(owningBundle, times(1)).loadClass(missing);
+
+        Bundle addedBundle = mock(Bundle.class);
+        when(addedBundle.getSymbolicName()).thenReturn("added");
+        when(addedBundle.loadClass(anyString())).thenThrow(new ClassNotFoundException());
+        resolver.addBundle(extend(addedBundle));
+
+        assertNotResolvable(missing);
+        verify(owningBundle, times(2)).loadClass(missing);
+    }
+
+    @Test
+    public void testResolveClass_shouldOnlyAskTheBundlesProvidingThePackage() throws Exception {
+        Bundle providingBundle = mock(Bundle.class);
+        when(providingBundle.getSymbolicName()).thenReturn("providing");
+        doReturn(Integer.class).when(providingBundle).loadClass(Integer.class.getName());
+        resolver.addBundle(extend(providingBundle, "java.lang"));
+
+        assertSame(Integer.class, resolver.resolveClass(Integer.class.getName()));
+
+        verify(owningBundle, never()).loadClass(Integer.class.getName());
+        verify(otherBundle, never()).loadClass(Integer.class.getName());
+    }
+
+    @Test
+    public void testGetResources_shouldSearchAllBundlesIfTheProvidersHaveNone() throws Exception {
+        Bundle providingBundle = mock(Bundle.class);
+        when(providingBundle.getSymbolicName()).thenReturn("providing");
+        resolver.addBundle(extend(providingBundle, "org.example"));
+        URL resource = new URL("file:/org/example/Page.html");
+        when(otherBundle.getResources("org/example/Page.html")).thenReturn(
+            Collections.enumeration(Collections.singletonList(resource)));
+
+        Iterator<URL> resources = resolver.getResources("org/example/Page.html");
+
+        assertSame(resource, resources.next());
+        assertEquals(false, resources.hasNext());
+        verify(providingBundle).getResources("org/example/Page.html");
+    }
+
+    @Test
+    public void testResolveClass_shouldNotRememberMissingClassesIfABundleWasAddedMeanwhile() throws Exception {
+        final Bundle addedBundle = mock(Bundle.class);
+        when(addedBundle.getSymbolicName()).thenReturn("added");
+        doReturn(Integer.class).when(addedBundle).loadClass(Integer.class.getName());
+        doAnswer(new Answer<Class<?>>() {
+            public Class<?> answer(InvocationOnMock invocation) throws Throwable {
+                // added while the lookup probes the known bundles
+                resolver.addBundle(extend(addedBundle));
+                throw new ClassNotFoundException();
+            }
+        }).when(otherBundle).loadClass(Integer.class.getName());
+
+        assertNotResolvable(Integer.class.getName());
+
+        assertSame(Integer.class, resolver.resolveClass(Integer.class.getName()));
+    }
+
+    @Test
+    public void testRemoveBundle_shouldCountRemovedBundles() throws Exception {
+        assertEquals(0, resolver.getRemovedBundleCount());
+
+        resolver.removeBundle(extend(otherBundle));
+        resolver.removeBundle(extend(otherBundle));
+
+        assertEquals(1, resolver.getRemovedBundleCount());
+    }
+
+    private void assertNotResolvable(String classname) {
+        try {
+            resolver.resolveClass(classname);
+            fail("Class " + classname + " should not be resolvable");
+        } catch (ClassNotFoundException e) {
+            // expected
+        }
+    }
+
+    private static ExtendedBundle extend(Bundle bundle, String... packageNames) {
+        ExtendedBundle extendedBundle = mock(ExtendedBundle.class);
+        when(extendedBundle.getBundle()).thenReturn(bundle);
+        when(extendedBundle.getPackageNames()).thenReturn(new HashSet<String>(Arrays.asList(packageNames)));
+        return extendedBundle;
+    }
+}
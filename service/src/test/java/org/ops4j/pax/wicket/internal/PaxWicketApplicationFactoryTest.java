@@ -0,0 +1,193 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+
+import javax.servlet.Servlet;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.UnavailableException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.wicket.IPageFactory;
+import org.apache.wicket.Page;
+import org.apache.wicket.application.IClassResolver;
+import org.apache.wicket.protocol.http.WebApplication;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.ops4j.pax.wicket.api.Constants;
+import org.ops4j.pax.wicket.api.WebApplicationFactory;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.ServiceReference;
+
+public class PaxWicketApplicationFactoryTest {
+
+    private BundleContext bundleContext;
+    private ServiceReference<WebApplicationFactory<?>> reference;
+    private WebApplicationFactory<?> webApplicationFactory;
+
+    @SuppressWarnings("unchecked")
+    @Before
+    public void setUp() throws Exception {
+        bundleContext = mock(BundleContext.class);
+        when(bundleContext.getDataFile("tmp-dir")).thenReturn(new File("target/tmp-dir"));
+        when(bundleContext.createFilter(anyString())).thenAnswer(new Answer<Filter>() {
+            public Filter answer(InvocationOnMock invocation) throws Throwable {
+                return FrameworkUtil.createFilter((String) invocation.getArguments()[0]);
+            }
+        });
+        Bundle bundle = mock(Bundle.class);
+        when(bundle.getBundleContext()).thenReturn(bundleContext);
+        reference = mock(ServiceReference.class);
+        when(reference.getBundle()).thenReturn(bundle);
+        when(reference.getProperty(Constants.MOUNTPOINT)).thenReturn("test");
+        when(reference.getProperty(Constants.APPLICATION_NAME)).thenReturn("test");
+        webApplicationFactory = new WebApplicationFactory<TestApplication>() {
+            public Class<TestApplication> getWebApplicationClass() {
+                return TestApplication.class;
+            }
+
+            public void onInstantiation(TestApplication application) {
+            }
+        };
+    }
+
+    @Test
+    public void testApplicationsShareTheEnhancedClass() {
+        PaxWicketApplicationFactory factory =
+            PaxWicketApplicationFactory.createPaxWicketApplicationFactory(bundleContext, webApplicationFactory,
+                reference);
+
+        WebApplication first = factory.createApplication(null);
+        WebApplication second = factory.createApplication(null);
+
+        assertNotSame(first, second);
+        assertSame(first.getClass(), second.getClass());
+        assertTrue(first instanceof TestApplication);
+        assertFalse(factory.isLazyStartup());
+    }
+
+    @Test
+    public void testLazyStartup() {
+        when(reference.getProperty(Constants.APPLICATION_STARTUP)).thenReturn(Constants.APPLICATION_STARTUP_LAZY);
+
+        PaxWicketApplicationFactory factory =
+            PaxWicketApplicationFactory.createPaxWicketApplicationFactory(bundleContext, webApplicationFactory,
+                reference);
+
+        assertTrue(factory.isLazyStartup());
+    }
+
+    @Test
+    public void testLazyStartup_shouldInitializeOnFirstRequest() throws Exception {
+        when(reference.getProperty(Constants.APPLICATION_STARTUP)).thenReturn(Constants.APPLICATION_STARTUP_LAZY);
+        PaxWicketApplicationFactory factory =
+            PaxWicketApplicationFactory.createPaxWicketApplicationFactory(bundleContext, webApplicationFactory,
+                reference);
+        Servlet delegator = mock(Servlet.class);
+        ServletConfig config = mock(ServletConfig.class);
+        Servlet servlet = ServletProxy.newServletProxy(factory, delegator);
+
+        servlet.init(config);
+
+        verify(delegator, never()).init(any(ServletConfig.class));
+
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        servlet.service(request, response);
+        servlet.service(request, response);
+
+        verify(delegator, times(1)).init(config);
+        verify(delegator, times(2)).service(any(ServletRequest.class), any(ServletResponse.class));
+    }
+
+    @Test
+    public void testService_shouldNotReinitializeDestroyedApplication() throws Exception {
+        PaxWicketApplicationFactory factory =
+            PaxWicketApplicationFactory.createPaxWicketApplicationFactory(bundleContext, webApplicationFactory,
+                reference);
+        Servlet delegator = mock(Servlet.class);
+        ServletConfig config = mock(ServletConfig.class);
+        Servlet servlet = ServletProxy.newServletProxy(factory, delegator);
+        servlet.init(config);
+        servlet.destroy();
+
+        try {
+            servlet.service(mock(HttpServletRequest.class), mock(HttpServletResponse.class));
+            fail("A destroyed application must not serve requests");
+        } catch (UnavailableException e) {
+            // expected
+        }
+
+        verify(delegator, times(1)).init(config);
+        verify(delegator, times(1)).destroy();
+        verify(delegator, never()).service(any(ServletRequest.class), any(ServletResponse.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testWarmUp_shouldResolveTheListedPages() throws Exception {
+        when(reference.getProperty(Constants.WARMUP_PAGES)).thenReturn(
+            TestPage.class.getName() + ", org.example.Missing");
+        PaxWicketApplicationFactory factory =
+            PaxWicketApplicationFactory.createPaxWicketApplicationFactory(bundleContext, webApplicationFactory,
+                reference);
+        IClassResolver classResolver = mock(IClassResolver.class);
+        when(classResolver.resolveClass(TestPage.class.getName())).thenReturn((Class) TestPage.class);
+        when(classResolver.resolveClass("org.example.Missing")).thenThrow(new ClassNotFoundException());
+        IPageFactory pageFactory = mock(IPageFactory.class);
+
+        factory.warmUp(classResolver, pageFactory);
+
+        verify(classResolver).resolveClass(TestPage.class.getName());
+        verify(classResolver).resolveClass("org.example.Missing");
+        verify(pageFactory).isBookmarkable(TestPage.class);
+        verify(pageFactory, times(1)).isBookmarkable(any(Class.class));
+    }
+
+    public static class TestPage extends Page {
+        private static final long serialVersionUID = 1L;
+    }
+
+    public static class TestApplication extends WebApplication {
+
+        @Override
+        public Class<? extends Page> getHomePage() {
+            return Page.class;
+        }
+    }
+}
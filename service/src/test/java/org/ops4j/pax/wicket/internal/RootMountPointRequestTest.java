@@ -0,0 +1,43 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Test;
+
+public class RootMountPointRequestTest {
+
+    @Test
+    public void testServletPathBecomesPathInfo() {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getContextPath()).thenReturn("/context");
+        when(request.getServletPath()).thenReturn("/page");
+        when(request.getPathInfo()).thenReturn(null);
+        when(request.getHeader("Accept")).thenReturn("text/html");
+
+        HttpServletRequest wrapped = new ServletProxy.RootMountPointRequest(request);
+
+        assertEquals("", wrapped.getContextPath());
+        assertEquals("", wrapped.getServletPath());
+        assertEquals("/page", wrapped.getPathInfo());
+        assertEquals("text/html", wrapped.getHeader("Accept"));
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.Servlet;
+
+import org.junit.Test;
+import org.ops4j.pax.wicket.api.Constants;
+import org.osgi.framework.Bundle;
+import org.osgi.service.http.HttpContext;
+import org.osgi.service.http.HttpService;
+
+public class ServletDescriptorTest {
+
+    private final Servlet servlet = mock(Servlet.class);
+    private final HttpService httpService = mock(HttpService.class);
+
+    private ServletDescriptor createDescriptor() {
+        Map<String, String> contextParams = new HashMap<String, String>();
+        contextParams.put(Constants.HTTP_SERVICE_SELECTOR, "");
+        return new ServletDescriptor(servlet, "/app", mock(Bundle.class), contextParams);
+    }
+
+    @Test
+    public void testRegistersOncePerHttpService() throws Exception {
+        ServletDescriptor descriptor = createDescriptor();
+
+        descriptor.register(httpService);
+        descriptor.register(httpService);
+
+        verify(httpService, times(1)).registerServlet(eq("/app"), eq(servlet), any(Dictionary.class),
+            any(HttpContext.class));
+    }
+
+    @Test
+    public void testDisposedDescriptorIsNotRegistered() throws Exception {
+        ServletDescriptor descriptor = createDescriptor();
+        descriptor.register(httpService);
+
+        descriptor.dispose();
+        descriptor.register(mock(HttpService.class));
+
+        verify(httpService).unregister("/app");
+        verify(httpService, times(1)).registerServlet(anyString(), any(Servlet.class), any(Dictionary.class),
+            any(HttpContext.class));
+    }
+
+    @Test
+    public void testDisposeBeforeRegistration() throws Exception {
+        ServletDescriptor descriptor = createDescriptor();
+
+        descriptor.dispose();
+        descriptor.register(httpService);
+
+        verify(httpService, never()).registerServlet(anyString(), any(Servlet.class), any(Dictionary.class),
+            any(HttpContext.class));
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.extender;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.Version;
+import org.osgi.framework.wiring.BundleRequirement;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+
+public class ExtendedBundleTest {
+
+    private ExtendedBundle.ExtendedBundleContext extendedBundleContext;
+
+    @Before
+    public void setup() throws Exception {
+        Bundle paxBundle = mock(Bundle.class);
+        when(paxBundle.getSymbolicName()).thenReturn("org.ops4j.pax.wicket.service");
+        when(paxBundle.getVersion()).thenReturn(Version.emptyVersion);
+        BundleContext paxBundleContext = mock(BundleContext.class);
+        when(paxBundleContext.getBundle()).thenReturn(paxBundle);
+        when(paxBundleContext.createFilter(anyString())).thenAnswer(new Answer<Filter>() {
+            public Filter answer(InvocationOnMock invocation) throws Throwable {
+                return FrameworkUtil.createFilter((String) invocation.getArguments()[0]);
+            }
+        });
+        extendedBundleContext = new ExtendedBundle.ExtendedBundleContext(paxBundleContext);
+    }
+
+    @Test
+    public void testIsImportingWicket_shouldNoticeDynamicWires() throws Exception {
+        List<BundleWire> wires = new ArrayList<BundleWire>();
+        wires.add(mockWire("(osgi.wiring.package=org.example)"));
+        BundleWiring wiring = mock(BundleWiring.class);
+        when(wiring.getRequiredWires("osgi.wiring.package")).thenReturn(wires);
+        when(wiring.getRequiredWires("osgi.wiring.bundle")).thenReturn(Collections.<BundleWire> emptyList());
+        Bundle bundle = mock(Bundle.class);
+        when(bundle.getSymbolicName()).thenReturn("dynamic");
+        when(bundle.adapt(BundleWiring.class)).thenReturn(wiring);
+        ExtendedBundle extendedBundle = new ExtendedBundle(extendedBundleContext, bundle);
+
+        assertFalse(extendedBundle.isImportingWicket());
+        assertFalse(extendedBundle.isImportingPAXWicketAPI());
+
+        // a DynamicImport-Package got wired to the same wiring
+        wires.add(mockWire("(osgi.wiring.package=org.apache.wicket.markup)"));
+        wires.add(mockWire("(osgi.wiring.package=org.ops4j.pax.wicket.api)"));
+
+        assertTrue(extendedBundle.isImportingWicket());
+        assertTrue(extendedBundle.isImportingPAXWicketAPI());
+    }
+
+    private static BundleWire mockWire(String filter) {
+        BundleRequirement requirement = mock(BundleRequirement.class);
+        when(requirement.getDirectives()).thenReturn(Collections.singletonMap("filter", filter));
+        BundleWire wire = mock(BundleWire.class);
+        when(wire.getRequirement()).thenReturn(requirement);
+        return wire;
+    }
+}
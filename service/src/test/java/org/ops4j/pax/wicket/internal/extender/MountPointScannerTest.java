@@ -0,0 +1,134 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.extender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.wicket.markup.html.WebPage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.pax.wicket.api.PaxWicketMountPoint;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+
+public class MountPointScannerTest {
+
+    @PaxWicketMountPoint(mountPoint = "mounted")
+    public static class MountedPage extends WebPage {
+        private static final long serialVersionUID = 1L;
+    }
+
+    public static class PlainPage extends WebPage {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private File dataDirectory;
+    private MountPointScanner scanner;
+
+    @Before
+    public void setup() throws Exception {
+        dataDirectory = File.createTempFile("mountpoints", "");
+        dataDirectory.delete();
+        BundleContext paxBundleContext = mock(BundleContext.class);
+        when(paxBundleContext.getDataFile("mountpoints")).thenReturn(new File(dataDirectory, "mountpoints"));
+        scanner = new MountPointScanner(paxBundleContext);
+    }
+
+    @After
+    public void tearDown() {
+        scanner.dispose();
+        File[] files = new File(dataDirectory, "mountpoints").listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        new File(dataDirectory, "mountpoints").delete();
+        dataDirectory.delete();
+    }
+
+    @Test
+    public void testGetCandidateClassNames_shouldOnlyReturnClassesReferencingTheAnnotation() throws Exception {
+        Bundle bundle = mockBundle(1);
+        List<String> classNames = Arrays.asList(MountedPage.class.getName(), PlainPage.class.getName());
+
+        assertEquals(Collections.singletonList(MountedPage.class.getName()),
+            scanner.getCandidateClassNames(bundle, classNames));
+    }
+
+    @Test
+    public void testGetCandidateClassNames_shouldReuseTheCacheOfAnUnchangedBundle() throws Exception {
+        List<String> classNames = Arrays.asList(MountedPage.class.getName(), PlainPage.class.getName());
+        scanner.getCandidateClassNames(mockBundle(1), classNames);
+
+        Bundle unchangedBundle = mockBundle(1);
+        Collection<String> candidates = scanner.getCandidateClassNames(unchangedBundle, classNames);
+
+        assertEquals(Collections.singletonList(MountedPage.class.getName()), candidates);
+        verify(unchangedBundle, never()).getEntry(resourceName(MountedPage.class));
+    }
+
+    @Test
+    public void testGetCandidateClassNames_shouldRescanAModifiedBundle() throws Exception {
+        List<String> classNames = Arrays.asList(MountedPage.class.getName(), PlainPage.class.getName());
+        scanner.getCandidateClassNames(mockBundle(1), classNames);
+
+        Bundle modifiedBundle = mockBundle(2);
+        scanner.getCandidateClassNames(modifiedBundle, classNames);
+
+        verify(modifiedBundle).getEntry(resourceName(MountedPage.class));
+    }
+
+    @Test
+    public void testRemoveCache_shouldDeleteTheCacheFileOfTheBundle() throws Exception {
+        Bundle bundle = mockBundle(1);
+        scanner.getCandidateClassNames(bundle, Arrays.asList(MountedPage.class.getName()));
+        File cacheFile = new File(new File(dataDirectory, "mountpoints"), "42.txt");
+        assertTrue(cacheFile.isFile());
+
+        scanner.removeCache(bundle);
+
+        assertFalse(cacheFile.exists());
+    }
+
+    private Bundle mockBundle(long lastModified) {
+        Bundle bundle = mock(Bundle.class);
+        when(bundle.getBundleId()).thenReturn(Long.valueOf(42));
+        when(bundle.getLastModified()).thenReturn(Long.valueOf(lastModified));
+        for (Class<?> clazz : new Class<?>[]{ MountedPage.class, PlainPage.class }) {
+            when(bundle.getEntry(resourceName(clazz))).thenReturn(
+                getClass().getClassLoader().getResource(resourceName(clazz)));
+        }
+        return bundle;
+    }
+
+    private static String resourceName(Class<?> clazz) {
+        return clazz.getName().replace('.', '/') + ".class";
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.extender;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.Version;
+import org.osgi.framework.wiring.BundleRequirement;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+
+public class PaxWicketBundleListenerTest {
+
+    private BundleDelegatingExtensionTracker extensionTracker;
+    private PaxWicketBundleListener listener;
+
+    @Before
+    public void setup() throws Exception {
+        Bundle paxBundle = mock(Bundle.class);
+        when(paxBundle.getSymbolicName()).thenReturn("org.ops4j.pax.wicket.service");
+        when(paxBundle.getVersion()).thenReturn(Version.emptyVersion);
+        BundleContext paxBundleContext = mock(BundleContext.class);
+        when(paxBundleContext.getBundle()).thenReturn(paxBundle);
+        when(paxBundleContext.createFilter(anyString())).thenAnswer(new Answer<Filter>() {
+            public Filter answer(InvocationOnMock invocation) throws Throwable {
+                return FrameworkUtil.createFilter((String) invocation.getArguments()[0]);
+            }
+        });
+        extensionTracker = mock(BundleDelegatingExtensionTracker.class);
+        listener = new PaxWicketBundleListener(paxBundleContext, extensionTracker);
+    }
+
+    @After
+    public void tearDown() {
+        listener.dispose();
+    }
+
+    @Test
+    public void testAddingBundle_shouldAddRelevantBundlesAsynchronously() throws Exception {
+        Bundle bundle = mockBundle(1, "(osgi.wiring.package=org.ops4j.pax.wicket.api)");
+
+        ExtendedBundle extendedBundle = listener.addingBundle(bundle, null);
+        assertTrue(listener.awaitReady(5, TimeUnit.SECONDS));
+        verify(extensionTracker).addRelevantBundle(extendedBundle);
+
+        listener.removedBundle(bundle, null, extendedBundle);
+        assertTrue(listener.awaitReady(5, TimeUnit.SECONDS));
+        verify(extensionTracker).removeRelevantBundle(extendedBundle);
+    }
+
+    @Test
+    public void testAddingBundle_shouldIgnoreOtherBundles() throws Exception {
+        Bundle bundle = mockBundle(2, "(osgi.wiring.package=org.example)");
+
+        listener.addingBundle(bundle, null);
+        assertTrue(listener.awaitReady(5, TimeUnit.SECONDS));
+
+        verify(extensionTracker, never()).addRelevantBundle(any(ExtendedBundle.class));
+    }
+
+    @Test
+    public void testAwaitReady_shouldWaitForPendingEvents() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        blockAdding(started, release);
+        Bundle bundle = mockBundle(3, "(osgi.wiring.package=org.ops4j.pax.wicket.api)");
+
+        listener.addingBundle(bundle, null);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        assertFalse(listener.awaitReady(50, TimeUnit.MILLISECONDS));
+        release.countDown();
+        assertTrue(listener.awaitReady(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testRemovedBundle_shouldCancelPendingAnalysis() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        blockAdding(started, release);
+        Bundle bundle = mockBundle(4, "(osgi.wiring.package=org.ops4j.pax.wicket.api)");
+
+        ExtendedBundle first = listener.addingBundle(bundle, null);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        // queued behind the running analysis of the first one
+        listener.removedBundle(bundle, null, first);
+        ExtendedBundle second = listener.addingBundle(bundle, null);
+        listener.removedBundle(bundle, null, second);
+        release.countDown();
+        assertTrue(listener.awaitReady(5, TimeUnit.SECONDS));
+
+        verify(extensionTracker).addRelevantBundle(first);
+        verify(extensionTracker).removeRelevantBundle(first);
+        verify(extensionTracker, never()).addRelevantBundle(second);
+        verify(extensionTracker, never()).removeRelevantBundle(second);
+    }
+
+    private void blockAdding(final CountDownLatch started, final CountDownLatch release) {
+        doAnswer(new Answer<Void>() {
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                started.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return null;
+            }
+        }).when(extensionTracker).addRelevantBundle(any(ExtendedBundle.class));
+    }
+
+    private static Bundle mockBundle(long bundleId, String importFilter) {
+        BundleRequirement requirement = mock(BundleRequirement.class);
+        when(requirement.getDirectives()).thenReturn(Collections.singletonMap("filter", importFilter));
+        BundleWire wire = mock(BundleWire.class);
+        when(wire.getRequirement()).thenReturn(requirement);
+        BundleWiring wiring = mock(BundleWiring.class);
+        when(wiring.getRequiredWires("osgi.wiring.package")).thenReturn(Collections.singletonList(wire));
+        Bundle bundle = mock(Bundle.class);
+        when(bundle.getBundleId()).thenReturn(bundleId);
+        when(bundle.getSymbolicName()).thenReturn("bundle" + bundleId);
+        when(bundle.adapt(BundleWiring.class)).thenReturn(wiring);
+        return bundle;
+    }
+}
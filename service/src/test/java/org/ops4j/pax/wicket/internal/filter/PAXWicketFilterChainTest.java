@@ -0,0 +1,101 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.GenericServlet;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import org.junit.Test;
+
+public class PAXWicketFilterChainTest {
+
+    private final List<String> calls = new ArrayList<String>();
+
+    private final GenericServlet servlet = new GenericServlet() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void service(ServletRequest req, ServletResponse res) throws ServletException, IOException {
+            calls.add("servlet");
+        }
+    };
+
+    @Test
+    public void testDispatchesFiltersInOrderBeforeTheServlet() throws Exception {
+        FilterChain chain =
+            new PAXWicketFilterChain(new Filter[]{ new RecordingFilter("a", 1), new RecordingFilter("b", 1) }, servlet);
+
+        chain.doFilter(mock(ServletRequest.class), mock(ServletResponse.class));
+
+        assertEquals("[a, b, servlet]", calls.toString());
+    }
+
+    @Test
+    public void testChainCanBeReusedAndReentered() throws Exception {
+        FilterChain chain =
+            new PAXWicketFilterChain(new Filter[]{ new RecordingFilter("a", 2), new RecordingFilter("b", 1) }, servlet);
+
+        chain.doFilter(mock(ServletRequest.class), mock(ServletResponse.class));
+        chain.doFilter(mock(ServletRequest.class), mock(ServletResponse.class));
+
+        assertEquals("[a, b, servlet, b, servlet, a, b, servlet, b, servlet]", calls.toString());
+    }
+
+    @Test
+    public void testWithoutFiltersDelegatesToTheServlet() throws Exception {
+        new PAXWicketFilterChain(new Filter[0], servlet).doFilter(mock(ServletRequest.class),
+            mock(ServletResponse.class));
+
+        assertEquals("[servlet]", calls.toString());
+    }
+
+    private class RecordingFilter implements Filter {
+
+        private final String name;
+        private final int invocations;
+
+        private RecordingFilter(String name, int invocations) {
+            this.name = name;
+            this.invocations = invocations;
+        }
+
+        public void init(FilterConfig filterConfig) throws ServletException {
+        }
+
+        public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException,
+            ServletException {
+            calls.add(name);
+            for (int i = 0; i < invocations; i++) {
+                chain.doFilter(request, response);
+            }
+        }
+
+        public void destroy() {
+        }
+    }
+}
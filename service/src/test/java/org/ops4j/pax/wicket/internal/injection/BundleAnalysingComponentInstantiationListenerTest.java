@@ -0,0 +1,169 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.injection;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Field;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.pax.wicket.api.PaxWicketBean;
+import org.ops4j.pax.wicket.spi.ProxyTargetLocator;
+import org.ops4j.pax.wicket.spi.ProxyTargetLocatorFactory;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.util.tracker.ServiceTracker;
+
+public class BundleAnalysingComponentInstantiationListenerTest {
+
+    public static class IndexedPage {
+        public static class NestedPanel {
+        }
+    }
+
+    public static class IndexedPage$$EnhancerByCGLIB$$abc123 extends IndexedPage {
+    }
+
+    public static class NotIndexedPage {
+    }
+
+    public static interface SomeService {
+    }
+
+    public static class InjectedPage {
+        @PaxWicketBean
+        private SomeService service;
+    }
+
+    public static class SharingPage {
+        @PaxWicketBean(shared = true)
+        private SomeService sharedService;
+        @PaxWicketBean
+        private SomeService service;
+    }
+
+    private BundleContext bundleContext;
+    private ServiceTracker<ProxyTargetLocatorFactory, ProxyTargetLocatorFactory> tracker;
+    private BundleAnalysingComponentInstantiationListener listener;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception {
+        String base = "file:/org/ops4j/pax/wicket/internal/injection/";
+        URL[] entries = new URL[]{
+            new URL(base + "BundleAnalysingComponentInstantiationListenerTest$IndexedPage.class"),
+            new URL(base + "BundleAnalysingComponentInstantiationListenerTest$IndexedPage$NestedPanel.class")
+        };
+        Bundle bundle = mock(Bundle.class);
+        when(bundle.getSymbolicName()).thenReturn("test.bundle");
+        when(bundle.findEntries("/", "*.class", true)).thenReturn(Collections.enumeration(Arrays.asList(entries)));
+        bundleContext = mock(BundleContext.class);
+        when(bundleContext.getBundle()).thenReturn(bundle);
+        tracker = mock(ServiceTracker.class);
+        listener =
+            new BundleAnalysingComponentInstantiationListener(bundleContext, PaxWicketBean.INJECTION_SOURCE_SCAN,
+                tracker);
+    }
+
+    @Test
+    public void testInjectionPossible_shouldFindIndexedClasses() {
+        assertTrue(listener.injectionPossible(IndexedPage.class));
+        assertTrue(listener.injectionPossible(IndexedPage.NestedPanel.class));
+    }
+
+    @Test
+    public void testInjectionPossible_shouldStripGeneratedClassNames() {
+        assertTrue(listener.injectionPossible(IndexedPage$$EnhancerByCGLIB$$abc123.class));
+    }
+
+    @Test
+    public void testInjectionPossible_shouldRejectUnknownClasses() {
+        assertFalse(listener.injectionPossible(NotIndexedPage.class));
+        assertFalse(listener.injectionPossible(ProxyTargetLocatorFactory.class));
+    }
+
+    @Test
+    public void testInjectionPossible_bundleWithoutClasses() throws Exception {
+        Bundle bundle = mock(Bundle.class);
+        BundleContext bundleContext = mock(BundleContext.class);
+        when(bundleContext.getBundle()).thenReturn(bundle);
+        @SuppressWarnings("unchecked")
+        ServiceTracker<ProxyTargetLocatorFactory, ProxyTargetLocatorFactory> tracker = mock(ServiceTracker.class);
+        BundleAnalysingComponentInstantiationListener emptyListener =
+            new BundleAnalysingComponentInstantiationListener(bundleContext, PaxWicketBean.INJECTION_SOURCE_SCAN,
+                tracker);
+        assertFalse(emptyListener.injectionPossible(IndexedPage.class));
+    }
+
+    @Test
+    public void testInject_shouldReuseChosenFactoryWhileFactoriesAreUnchanged() throws Exception {
+        ProxyTargetLocatorFactory factory = mock(ProxyTargetLocatorFactory.class);
+        when(factory.getName()).thenReturn("test");
+        when(factory.createProxyTargetLocator(eq(bundleContext), any(Field.class), eq(InjectedPage.class),
+            anyMapOf(String.class, String.class))).thenReturn(mock(ProxyTargetLocator.class));
+        when(tracker.getServices(any(ProxyTargetLocatorFactory[].class))).thenReturn(
+            new ProxyTargetLocatorFactory[]{ factory });
+
+        InjectedPage first = new InjectedPage();
+        listener.inject(first, InjectedPage.class);
+        InjectedPage second = new InjectedPage();
+        listener.inject(second, InjectedPage.class);
+
+        assertNotNull(first.service);
+        assertNotNull(second.service);
+        verify(tracker, times(1)).getServices(any(ProxyTargetLocatorFactory[].class));
+
+        // a changed set of factories must trigger a new lookup
+        when(tracker.getTrackingCount()).thenReturn(1);
+        listener.inject(new InjectedPage(), InjectedPage.class);
+        verify(tracker, times(2)).getServices(any(ProxyTargetLocatorFactory[].class));
+    }
+
+    @Test
+    public void testInject_sharedFieldsShouldGetTheSameProxy() throws Exception {
+        ProxyTargetLocatorFactory factory = mock(ProxyTargetLocatorFactory.class);
+        when(factory.getName()).thenReturn("test");
+        when(factory.createProxyTargetLocator(eq(bundleContext), any(Field.class), eq(SharingPage.class),
+            anyMapOf(String.class, String.class))).thenReturn(mock(ProxyTargetLocator.class));
+        when(tracker.getServices(any(ProxyTargetLocatorFactory[].class))).thenReturn(
+            new ProxyTargetLocatorFactory[]{ factory });
+
+        SharingPage first = new SharingPage();
+        listener.inject(first, SharingPage.class);
+        SharingPage second = new SharingPage();
+        listener.inject(second, SharingPage.class);
+
+        assertNotNull(first.sharedService);
+        assertSame(first.sharedService, second.sharedService);
+        assertNotSame(first.service, second.service);
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.internal.injection.registry;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.ops4j.pax.wicket.api.PaxWicketBean;
+import org.ops4j.pax.wicket.spi.ProxyTarget;
+import org.ops4j.pax.wicket.spi.ReleasableProxyTarget;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+
+public class OSGiServiceRegistryProxyTargetLocatorTest {
+
+    public static interface SomeService {
+    }
+
+    public static class InjectedPage {
+        @PaxWicketBean
+        private SomeService perCall;
+        @PaxWicketBean(serviceRetention = 60000)
+        private SomeService retained;
+        @PaxWicketBean(serviceRetention = 10)
+        private SomeService shortlyRetained;
+    }
+
+    private BundleContext bundleContext;
+    private ServiceReference<?> reference;
+    private SomeService service;
+
+    @Before
+    public void setup() throws Exception {
+        bundleContext = mock(BundleContext.class);
+        reference = mock(ServiceReference.class);
+        service = mock(SomeService.class);
+        when(bundleContext.getAllServiceReferences(SomeService.class.getName(), null)).thenReturn(
+            new ServiceReference<?>[]{ reference });
+        when(bundleContext.getService(reference)).thenReturn(service);
+        when(reference.getProperty(org.osgi.framework.Constants.SERVICE_ID)).thenReturn(Long.valueOf(42));
+    }
+
+    @Test
+    public void testReleaseTarget_shouldUngetServiceAfterEachCallByDefault() throws Exception {
+        ReleasableProxyTarget target = createLocator("perCall").locateProxyTarget();
+
+        call(target);
+        call(target);
+
+        verify(bundleContext, times(2)).getService(reference);
+        verify(bundleContext, times(2)).ungetService(reference);
+    }
+
+    @Test
+    public void testReleaseTarget_shouldKeepServiceWhileConcurrentCallsUseIt() throws Exception {
+        ReleasableProxyTarget target = createLocator("perCall").locateProxyTarget();
+
+        assertSame(service, target.getTarget());
+        assertSame(service, target.getTarget());
+        target.releaseTarget();
+        verify(bundleContext, never()).ungetService(reference);
+
+        target.releaseTarget();
+        verify(bundleContext, times(1)).ungetService(reference);
+    }
+
+    @Test
+    public void testReleaseTarget_shouldNotReleaseIdleServiceDuringCall() throws Exception {
+        ReleasableProxyTarget target = createLocator("shortlyRetained").locateProxyTarget();
+        call(target);
+
+        assertSame(service, target.getTarget());
+        Thread.sleep(200);
+        verify(bundleContext, never()).ungetService(reference);
+
+        target.releaseTarget();
+        Thread.sleep(200);
+        verify(bundleContext, times(1)).ungetService(reference);
+    }
+
+    @Test
+    public void testReleaseTarget_shouldKeepRetainedServiceUntilUnregistered() throws Exception {
+        ReleasableProxyTarget target = createLocator("retained").locateProxyTarget();
+
+        call(target);
+        call(target);
+
+        verify(bundleContext, times(1)).getService(reference);
+        verify(bundleContext, never()).ungetService(reference);
+
+        ArgumentCaptor<ServiceListener> listener = ArgumentCaptor.forClass(ServiceListener.class);
+        verify(bundleContext).addServiceListener(listener.capture(), anyString());
+        listener.getValue().serviceChanged(new ServiceEvent(ServiceEvent.UNREGISTERING, reference));
+
+        verify(bundleContext, times(1)).ungetService(reference);
+        verify(bundleContext).removeServiceListener(any(ServiceListener.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testLocateProxyTarget_shouldUseTrackedReferencesInsteadOfQueryingTheRegistry() throws Exception {
+        String filter = OSGiServiceRegistryProxyTargetLocator.getServiceFilter(SomeService.class.getName(), "");
+        when(bundleContext.createFilter(filter)).thenReturn(FrameworkUtil.createFilter(filter));
+        RankedServiceReferences references = new RankedServiceReferences(bundleContext, filter);
+        references.open();
+        references.addingService((ServiceReference<Object>) reference);
+        PaxWicketBean annotation = InjectedPage.class.getDeclaredField("perCall").getAnnotation(PaxWicketBean.class);
+        OSGiServiceRegistryProxyTargetLocator locator =
+            new OSGiServiceRegistryProxyTargetLocator(bundleContext, annotation, SomeService.class,
+                InjectedPage.class, references);
+
+        call(locator.locateProxyTarget());
+        call(locator.locateProxyTarget());
+
+        verify(bundleContext, never()).getAllServiceReferences(SomeService.class.getName(), null);
+        references.removedService((ServiceReference<Object>) reference, reference);
+        assertNull(locator.fetchReferences());
+    }
+
+    private OSGiServiceRegistryProxyTargetLocator createLocator(String fieldName) throws Exception {
+        PaxWicketBean annotation = InjectedPage.class.getDeclaredField(fieldName).getAnnotation(PaxWicketBean.class);
+        return new OSGiServiceRegistryProxyTargetLocator(bundleContext, annotation, SomeService.class,
+            InjectedPage.class);
+    }
+
+    private void call(ReleasableProxyTarget target) {
+        assertSame(service, target.getTarget());
+        ProxyTarget released = target.releaseTarget();
+        assertSame(target, released);
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright OPS4J
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.wicket.util.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.ops4j.pax.wicket.spi.ProxyTarget;
+import org.ops4j.pax.wicket.spi.ProxyTargetLocator;
+
+public class LazyInitProxyFactoryTest {
+
+    public static class ConcreteBean {
+
+        private final String value;
+
+        public ConcreteBean() {
+            this(null);
+        }
+
+        public ConcreteBean(String value) {
+            this.value = value;
+        }
+
+        public String getValue() {
+            return value;
+        }
+    }
+
+    private static final class FixedLocator implements ProxyTargetLocator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Object target;
+
+        private FixedLocator(Object target) {
+            this.target = target;
+        }
+
+        public ProxyTarget locateProxyTarget() {
+            return new ProxyTarget() {
+                public Object getTarget() {
+                    return target;
+                }
+            };
+        }
+
+        public Class<?> getParent() {
+            return LazyInitProxyFactoryTest.class;
+        }
+    }
+
+    private static final class UnreachableLocator implements ProxyTargetLocator {
+
+        private static final long serialVersionUID = 1L;
+
+        public ProxyTarget locateProxyTarget() {
+            throw new IllegalStateException("the target must not be located");
+        }
+
+        public Class<?> getParent() {
+            return LazyInitProxyFactoryTest.class;
+        }
+    }
+
+    @Test
+    public void testCreateProxy_proxyMethodsShouldNotLocateTheTarget() {
+        ProxyTargetLocator locator = new UnreachableLocator();
+        Object classBased = LazyInitProxyFactory.createProxy(ConcreteBean.class, locator);
+        Object interfaceBased = LazyInitProxyFactory.createProxy(Runnable.class, locator);
+
+        for (Object proxy : new Object[]{ classBased, interfaceBased }) {
+            assertNotNull(proxy.toString());
+            proxy.hashCode();
+            assertFalse(proxy.equals(null));
+            assertSame(locator, ((ILazyInitProxy) proxy).getObjectLocator());
+        }
+    }
+
+    @Test
+    public void testCreateProxy_classBasedProxiesShouldReuseTheGeneratedClass() {
+        ConcreteBean first =
+            (ConcreteBean) LazyInitProxyFactory.createProxy(ConcreteBean.class, new FixedLocator(new ConcreteBean(
+                "first")));
+        ConcreteBean second =
+            (ConcreteBean) LazyInitProxyFactory.createProxy(ConcreteBean.class, new FixedLocator(new ConcreteBean(
+                "second")));
+
+        assertNotSame(first, second);
+        assertSame(first.getClass(), second.getClass());
+        assertEquals("first", first.getValue());
+        assertEquals("second", second.getValue());
+        assertTrue(second instanceof ILazyInitProxy);
+    }
+}
@@ -23,23 +23,33 @@ import org.ops4j.pax.wicket.internal.NotImplementedException;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
 
 /**
  * @author edward.yakop@gmail.com
  */
 public final class SerializationTest {
 
-    @Test
-    public final void testSerialization() throws Throwable {
-        IClassResolver resolver = new IClassResolver()
+    private final IClassResolver resolver = new IClassResolver()
         {
 
             public Class<?> resolveClass(String classname)
@@ -73,6 +83,8 @@ public final class SerializationTest {
             }
         };
 
+    @Test
+    public final void testSerialization() throws Throwable {
         testSerializeObject("pax-wicket", resolver);
         testSerializeObject(1, resolver);
 
@@ -81,6 +93,111 @@ public final class SerializationTest {
         testSerializeObject(someObject, resolver);
     }
 
+    @Test
+    public final void testSerializationFormats() throws Throwable {
+        List<Object> objects = new ArrayList<Object>();
+        objects.add(createSomeObject());
+        objects.add(new SomeObject[]{ createSomeObject(), createSomeObject() });
+        objects.add(TimeUnit.SECONDS);
+        objects.add(new int[]{ 1, 2, 3 });
+
+        byte[] java = serialize(PaxWicketSerializer.FORMAT_JAVA, objects);
+        byte[] compact = serialize(PaxWicketSerializer.FORMAT_COMPACT, objects);
+        byte[] deflated = serialize(PaxWicketSerializer.FORMAT_COMPACT_DEFLATE, objects);
+        assertTrue(compact.length < java.length);
+
+        assertEqualObjects(objects, deserialize(java));
+        assertEqualObjects(objects, deserialize(compact));
+        assertEqualObjects(objects, deserialize(deflated));
+    }
+
+    @Test
+    public final void testCompactFormatRejectsChangedFields() throws Throwable {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new PaxWicketObjectOutputStream(out, true);
+        oos.writeObject(createSomeObject());
+        oos.close();
+        byte[] data = out.toByteArray();
+
+        // pretend the class had other fields when it was written, keeping its serial version UID
+        byte[] className = SomeObject.class.getName().getBytes("UTF-8");
+        int hashOffset = indexOf(data, className) + className.length + 8;
+        data[hashOffset] ^= 1;
+
+        ObjectInputStream ois = new PaxWicketObjectInputStream(new ByteArrayInputStream(data), resolver, true);
+        try {
+            ois.readObject();
+            fail("changed fields must be detected");
+        } catch (InvalidClassException e) {
+            // expected
+        } finally {
+            ois.close();
+        }
+    }
+
+    @Test
+    public final void testExplainNotSerializable() throws Throwable {
+        Holder holder = new Holder();
+        try {
+            new PaxWicketObjectOutputStream(new ByteArrayOutputStream()).writeObject(holder);
+            fail("holder must not be serializable");
+        } catch (NotSerializableException e) {
+            Exception explanation = PaxWicketObjectOutputStream.explainNotSerializable(holder, e);
+            assertTrue(explanation.getMessage(), explanation.getMessage().contains("notSerializable"));
+        }
+    }
+
+    @Test
+    public final void testDiagnosticsRememberExplanations() throws Throwable {
+        NotSerializableException exception = new NotSerializableException(Object.class.getName());
+        PaxWicketSerializationDiagnostics cached = new PaxWicketSerializationDiagnostics(60000);
+        Exception explanation = cached.explain(new Holder(), exception);
+        assertSame(explanation, cached.explain(new Holder(), exception));
+
+        PaxWicketSerializationDiagnostics uncached = new PaxWicketSerializationDiagnostics(0);
+        assertNotSame(uncached.explain(new Holder(), exception), uncached.explain(new Holder(), exception));
+
+        cached.dispose();
+        assertSame(exception, cached.explain(new Holder(), exception));
+    }
+
+    private byte[] serialize(String format, Object object) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new PaxWicketSerializer("pax-wicket", format).newObjectOutputStream(out);
+        oos.writeObject(object);
+        oos.close();
+        return out.toByteArray();
+    }
+
+    private Object deserialize(byte[] data) throws IOException, ClassNotFoundException {
+        ObjectInputStream ois = PaxWicketSerializer.newObjectInputStream(new ByteArrayInputStream(data), resolver);
+        try {
+            return ois.readObject();
+        } finally {
+            ois.close();
+        }
+    }
+
+    private static int indexOf(byte[] data, byte[] part) {
+        search: for (int i = 0; i <= data.length - part.length; i++) {
+            for (int j = 0; j < part.length; j++) {
+                if (data[i + j] != part[j]) {
+                    continue search;
+                }
+            }
+            return i;
+        }
+        throw new IllegalArgumentException("part not found");
+    }
+
+    private void assertEqualObjects(List<Object> expected, Object actual) {
+        List<?> actualList = (List<?>) actual;
+        assertEquals(expected.get(0), actualList.get(0));
+        assertTrue(Arrays.equals((Object[]) expected.get(1), (Object[]) actualList.get(1)));
+        assertEquals(expected.get(2), actualList.get(2));
+        assertTrue(Arrays.equals((int[]) expected.get(3), (int[]) actualList.get(3)));
+    }
+
     private SomeObject createSomeObject() {
         SomeObject someObject = new SomeObject();
         Random random = new Random(System.currentTimeMillis());
@@ -110,6 +227,12 @@ public final class SerializationTest {
         assertEquals(objectToSerialize, object);
     }
 
+    public static class Holder implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final Object notSerializable = new Object();
+    }
+
     public static class SomeObject
             implements Serializable {
         private static final long serialVersionUID = 1L;